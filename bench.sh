@@ -0,0 +1,19 @@
+#!/bin/bash
+# files/s of many small-file copies, with the fixed pool and virtual threads, unbatched (batch 1) and batched: ./bench.sh [files] [bytesPerFile] [rounds]
+# virtual needs java 21 or later and is skipped before that, each run prints the executor it really got
+cd src &&
+javac ./bench/CopyBench.java -Xlint:all -Werror &&
+feature=$(java -XshowSettings:properties -version 2>&1 | sed -n 's/^ *java.specification.version = //p') &&
+for mode in fixed virtual; do
+    if [ "$mode" = virtual ] && [ "${feature%%.*}" -lt 21 ]; then
+        echo "virtual: skipped, java $feature has no virtual threads"
+        continue
+    fi
+    for batch in 1 256; do
+        scratch=$(mktemp -d) &&
+        java -Dexplorer.executor=$mode -Dexplorer.copy.batchFiles=$batch -Duser.home="$scratch" bench.CopyBench "$@"
+        rm -rf "$scratch"
+    done
+done
+rm ./bench/*.class &&
+rm ./core/*.class
@@ -0,0 +1,62 @@
+package bench; // many small files copied by one cp of all their names and by one cp of a tree holding them, run by bench.sh per executor mode and batch size
+
+import core.BatchResult;
+import core.ErrorCode;
+import core.FolderImpl;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+final class CopyBench {
+    public static void main(final String[] args) throws IOException {
+        final int files = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        final int bytesPerFile = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+        final int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        final Path home = Paths.get(System.getProperty("user.home")); // bench.sh points this at a scratch directory
+        final Path source = home.resolve("src");
+        Files.createDirectories(source);
+        final byte[] content = new byte[bytesPerFile];
+        new Random(42).nextBytes(content);
+        final String[] names = new String[files];
+        for (int i = 0; i < files; i++) {
+            names[i] = "f" + i;
+            Files.write(source.resolve(names[i]), content);
+        }
+        final Path tree = source.resolve("tree");
+        for (int i = 0; i < files; i++) { // the same files again, a hundred to a folder
+            final Path folder = tree.resolve("d" + i / 100);
+            if (i % 100 == 0)
+                Files.createDirectories(folder);
+            Files.write(folder.resolve("f" + i), content);
+        }
+        final FolderImpl folder = FolderImpl.getInstance();
+        folder.cd(source.toString());
+        final String mode = folder.getExecutionMode().toString().toLowerCase() + " batch " + System.getProperty("explorer.copy.batchFiles", "256");
+        System.out.println(mode + ": names run on " + folder.getExecutionMode().describe() + ", a tree's files on the tree copier's fork/join pool in every mode");
+        report(mode, "names", files, bytesPerFile, rounds, bestOf(folder, rounds, "../dst", names));
+        report(mode, "tree", files, bytesPerFile, rounds, bestOf(folder, rounds, "../tree", "tree"));
+        folder.shutdownExecutorService();
+    }
+
+    private static long bestOf(final FolderImpl folder, final int rounds, final String destinationPrefix, final String... names) throws IOException {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round <= rounds; round++) { // round 0 warms up the JIT and the page cache
+            final String destination = destinationPrefix + round;
+            Files.createDirectories(Paths.get(folder.getPath() + folder.getName()).resolve(destination));
+            final long start = System.nanoTime();
+            final BatchResult result = folder.copyAsync(destination, names).join();
+            final long elapsed = System.nanoTime() - start;
+            if (result.firstError() != ErrorCode.SUCCESS)
+                throw new IllegalStateException("Copy failed: " + result.firstError());
+            if (round > 0)
+                best = Math.min(best, elapsed);
+        }
+        return best;
+    }
+
+    private static void report(final String mode, final String layout, final int files, final int bytesPerFile, final int rounds, final long best) {
+        System.out.printf("%-18s %-5s %d files x %d bytes: best of %d %.1f ms, %.0f files/s%n", mode, layout, files, bytesPerFile, rounds, best / 1e6, files * 1e9 / best);
+    }
+}
@@ -0,0 +1,26 @@
+package core;
+
+import java.util.Collections;
+import java.util.Map;
+
+public record BatchResult(Map<String, ErrorCode> results) { // per-name outcome of a batch cp/mv, in the order the names were given
+    public BatchResult {
+        results = Collections.unmodifiableMap(results);
+    }
+
+    public ErrorCode firstError() { // first failure in argument order, SUCCESS when every item succeeded
+        for (final ErrorCode errorCode : results.values())
+            if (errorCode != ErrorCode.SUCCESS)
+                return errorCode;
+        return ErrorCode.SUCCESS;
+    }
+
+    @Override
+    public String toString() {
+        if (firstError() == ErrorCode.SUCCESS)
+            return ErrorCode.SUCCESS.toString();
+        final StringBuilder summary = new StringBuilder();
+        results.forEach((name, errorCode) -> summary.append(summary.length() == 0 ? "" : ", ").append(name).append(": ").append(errorCode));
+        return summary.toString();
+    }
+}
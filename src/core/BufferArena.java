@@ -0,0 +1,51 @@
+package core;
+
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+final class BufferArena { // direct buffers shared by every job, allocated on first use and then recycled, never more than the cap
+    private final int bufferSize, capacity;
+    private final Semaphore available;
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+
+    BufferArena(final int bufferSize, final long capacityBytes) {
+        this.bufferSize = bufferSize;
+        this.capacity = (int) Math.max(1, capacityBytes / bufferSize);
+        this.available = new Semaphore(capacity);
+    }
+
+    // waits only for the first buffer and takes the rest if they are free, a caller never waits while holding any
+    List<ByteBuffer> acquire(final int wanted, final Job job) throws InterruptedIOException {
+        try {
+            while (!available.tryAcquire(100, TimeUnit.MILLISECONDS))
+                job.checkCancelled();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a copy buffer");
+        }
+        int granted = 1;
+        while (granted < wanted && available.tryAcquire())
+            granted++;
+        final List<ByteBuffer> buffers = new ArrayList<>(granted);
+        for (int i = 0; i < granted; i++) {
+            final ByteBuffer recycled = free.poll();
+            buffers.add(recycled != null ? recycled.clear() : ByteBuffer.allocateDirect(bufferSize));
+        }
+        return buffers;
+    }
+
+    void release(final List<ByteBuffer> buffers) {
+        free.addAll(buffers); // back on the free list before the permits, so a new holder always finds one
+        available.release(buffers.size());
+    }
+
+    String status() {
+        final int inUse = capacity - available.availablePermits();
+        return "copy buffers of " + DiskUsage.humanReadable(bufferSize) + ": " + inUse + "/" + capacity + " in use, " + DiskUsage.humanReadable((long) (inUse + free.size()) * bufferSize) + " allocated";
+    }
+}
@@ -0,0 +1,295 @@
+package core;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayDeque;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+final class ChunkedFileCopier { // splits one large file into byte ranges copied concurrently
+    private static volatile long threshold = Long.getLong("explorer.chunkedCopy.threshold", 256L * 1024 * 1024);
+    private static volatile long chunkSize = Long.getLong("explorer.chunkedCopy.chunkSize", 64L * 1024 * 1024);
+    static final long SLICE = 8L * 1024 * 1024; // progress and cancellation are checked between slices of one transfer
+    private static final long CHECKPOINT = 64L * 1024 * 1024; // a sliced copy forces and journals its progress this often
+    private static final boolean SPARSE = !"false".equals(System.getProperty("explorer.copy.sparse")); // all-zero blocks become holes in the target
+    private static final int BLOCK = 64 * 1024; // hole granularity, a multiple of any common filesystem block
+    private static final ByteBuffer ZEROES = ByteBuffer.allocateDirect(BLOCK).asReadOnlyBuffer();
+    private static final int RING = Math.max(1, Integer.getInteger("explorer.copy.ringBuffers", 4)); // slices a transfer reads ahead of the one it is writing
+    private static final BufferArena arena = new BufferArena((int) SLICE, Long.getLong("explorer.copy.arenaBytes", 128L * 1024 * 1024));
+    // small files loop over a buffer of their own size class, a batch of them must not take the slices big transfers read ahead into
+    private static final BufferArena smallArena = new BufferArena(Integer.getInteger("explorer.copy.smallBuffer", 64 * 1024), Long.getLong("explorer.copy.smallArenaBytes", 8L * 1024 * 1024));
+
+    private record Read(ByteBuffer buffer, long position, Future<Integer> pending) {
+    }
+
+    private ChunkedFileCopier() {
+    }
+
+    static long getThreshold() {
+        return threshold;
+    }
+
+    static void setThreshold(final long threshold) {
+        if (threshold < 0)
+            throw new IllegalArgumentException("Bad Threshold: " + threshold);
+        ChunkedFileCopier.threshold = threshold;
+    }
+
+    static long getChunkSize() {
+        return chunkSize;
+    }
+
+    static void setChunkSize(final long chunkSize) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("Bad Chunk Size: " + chunkSize);
+        ChunkedFileCopier.chunkSize = chunkSize;
+    }
+
+    static boolean shouldUse(final long size) {
+        return size >= threshold && size > chunkSize;
+    }
+
+    // the calling thread copies chunks too, so waiting on the latch never waits on a chunk nobody has claimed
+    static void copy(final Path src, final Path dest, final ExecutorService executorService, final Job job, final FileChecksum checksum) throws IOException {
+        final BasicFileAttributes attrs = Files.readAttributes(src, BasicFileAttributes.class);
+        final long size = attrs.size(), sourceMillis = attrs.lastModifiedTime().toMillis();
+        final JobJournal.Entry journal = job.journal();
+        final List<long[]> done = journal == null || checksum != null ? List.of() : journal.resumedRanges(dest, size, sourceMillis); // chunks a crashed run finished, redone when their bytes must be hashed
+        final long chunk = checksum == null ? chunkSize : (chunkSize + SLICE - 1) / SLICE * SLICE; // a hashed block must not straddle two chunks
+        final int chunks = (int) ((size + chunk - 1) / chunk);
+        if (Entity.DEBUG)
+            System.out.println("CHUNKED COPY OF " + src + " IN " + chunks + " CHUNKS" + (done.isEmpty() ? "" : ", RESUMING"));
+        try (final FileChannel out = open(src, dest, done.isEmpty())) {
+            if (size > 0 && out.size() < size)
+                out.write(ByteBuffer.allocate(1), size - 1); // sizes the target up front so chunks never extend it concurrently
+            final AtomicInteger nextChunk = new AtomicInteger();
+            final CountDownLatch remaining = new CountDownLatch(chunks);
+            final AtomicReference<IOException> failure = new AtomicReference<>();
+            final Runnable worker = () -> {
+                int index;
+                while ((index = nextChunk.getAndIncrement()) < chunks)
+                    try {
+                        final long start = index * chunk, length = Math.min(chunk, size - start);
+                        if (failure.get() != null)
+                            continue;
+                        if (covered(done, start, start + length))
+                            job.addBytes(length);
+                        else {
+                            transferChunk(src, out, start, length, job, checksum);
+                            if (journal != null) {
+                                out.force(false);
+                                journal.range(dest, size, sourceMillis, start, start + length);
+                            }
+                        }
+                    } catch (final IOException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        remaining.countDown();
+                    }
+            };
+            final int helpers = Math.min(chunks, Runtime.getRuntime().availableProcessors()) - 1;
+            try {
+                for (int i = 0; i < helpers; i++)
+                    executorService.execute(worker);
+            } catch (final RejectedExecutionException e) {
+                if (Entity.DEBUG)
+                    System.out.println("NO HELPERS AVAILABLE, COPYING " + src + " ON CALLER THREAD");
+            }
+            worker.run();
+            try {
+                remaining.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while copying " + src);
+            }
+            if (failure.get() != null)
+                throw failure.get();
+        }
+    }
+
+    // a read and write loop through a small arena buffer instead of Files.copy, for files the batcher groups
+    static void copySmall(final Path src, final Path dest, final Job job) throws IOException {
+        final List<ByteBuffer> borrowed = smallArena.acquire(1, job);
+        final ByteBuffer buffer = borrowed.get(0);
+        try (final FileChannel in = FileChannel.open(src, StandardOpenOption.READ);
+                final FileChannel out = open(src, dest, true)) {
+            for (int read; (read = in.read(buffer.clear())) > 0;) {
+                buffer.flip();
+                while (buffer.hasRemaining())
+                    out.write(buffer);
+                job.addBytes(read);
+            }
+        } finally {
+            smallArena.release(borrowed);
+        }
+    }
+
+    static void copySliced(final Path src, final Path dest, final Job job, final FileChecksum checksum) throws IOException { // one thread, but reports progress as it goes
+        final BasicFileAttributes attrs = Files.readAttributes(src, BasicFileAttributes.class);
+        final long size = attrs.size(), sourceMillis = attrs.lastModifiedTime().toMillis();
+        final JobJournal.Entry journal = job.journal();
+        final long resumeAt = journal == null || checksum != null ? 0 : prefix(journal.resumedRanges(dest, size, sourceMillis));
+        try (final FileChannel out = open(src, dest, resumeAt == 0)) {
+            job.addBytes(resumeAt);
+            for (long position = resumeAt; position < size;) {
+                final long count = Math.min(CHECKPOINT, size - position);
+                transferChunk(src, out, position, count, job, checksum);
+                position += count;
+                if (journal != null) {
+                    out.force(false);
+                    journal.range(dest, size, sourceMillis, 0, position);
+                }
+            }
+            setLength(out, size);
+        }
+    }
+
+    private static void setLength(final FileChannel out, final long size) throws IOException { // a trailing hole still counts towards the size
+        if (out.size() > size)
+            out.truncate(size);
+        else if (out.size() < size)
+            out.write(ByteBuffer.allocate(1), size - 1);
+    }
+
+    private static FileChannel open(final Path src, final Path dest, final boolean fresh) throws IOException { // a new target gets the source's mode
+        return fresh ? FileChannel.open(dest, EnumSet.of(StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), modeOf(src))
+                : FileChannel.open(dest, EnumSet.of(StandardOpenOption.CREATE, StandardOpenOption.WRITE), modeOf(src));
+    }
+
+    static FileAttribute<?>[] modeOf(final Path file) throws IOException { // Files.copy keeps the mode, scripts must stay executable
+        try {
+            return new FileAttribute<?>[] { PosixFilePermissions.asFileAttribute(Files.getPosixFilePermissions(file)) };
+        } catch (final UnsupportedOperationException e) {
+            return new FileAttribute<?>[0]; // not a posix filesystem, the default mode will do
+        }
+    }
+
+    private static boolean covered(final List<long[]> done, final long start, final long end) {
+        for (final long[] range : done)
+            if (range[0] <= start && range[1] >= end)
+                return true;
+        return false;
+    }
+
+    private static long prefix(final List<long[]> done) { // how far from 0 the journaled ranges reach without a gap
+        long reached = 0;
+        boolean extended = true;
+        while (extended) {
+            extended = false;
+            for (final long[] range : done)
+                if (range[0] <= reached && range[1] > reached) {
+                    reached = range[1];
+                    extended = true;
+                }
+        }
+        return reached;
+    }
+
+    static String arenaStatus() {
+        return arena.status() + System.lineSeparator() + smallArena.status();
+    }
+
+    // reads run ahead asynchronously into a ring of arena buffers while this thread writes the oldest, so neither side waits on the other;
+    // the bytes pass through a buffer rather than transferFrom because they have to be seen to find the zero blocks
+    private static void transferChunk(final Path src, final FileChannel out, final long position, final long count, final Job job, final FileChecksum checksum) throws IOException {
+        final List<ByteBuffer> ring = arena.acquire((int) Math.min(RING, count / SLICE + 2), job); // an unaligned range touches one slice more
+        final ArrayDeque<Read> reads = new ArrayDeque<>();
+        try (final AsynchronousFileChannel in = AsynchronousFileChannel.open(src, StandardOpenOption.READ)) {
+            try {
+                long issued = 0;
+                for (final ByteBuffer buffer : ring)
+                    issued += issue(in, buffer, position + issued, count - issued, reads);
+                while (!reads.isEmpty()) {
+                    job.checkCancelled();
+                    final Read read = reads.poll();
+                    int result = await(read.pending());
+                    while (read.buffer().hasRemaining()) {
+                        if (result < 0)
+                            throw new IOException("Source shrank while copying " + src);
+                        result = await(in.read(read.buffer(), read.position() + read.buffer().position()));
+                    }
+                    final ByteBuffer buffer = read.buffer().flip();
+                    if (checksum != null)
+                        checksum.update(read.position(), buffer);
+                    job.addHoles(writeSparse(out, buffer, read.position()));
+                    job.addBytes(buffer.limit());
+                    issued += issue(in, buffer, position + issued, count - issued, reads);
+                }
+            } finally {
+                for (final Read read : reads) // a read still landing in a buffer must finish before the arena hands it out again
+                    try {
+                        await(read.pending());
+                    } catch (final IOException e) {
+                        if (Entity.DEBUG)
+                            System.out.println("ABANDONED READ OF " + src + " FAILED: " + e);
+                    }
+            }
+        } finally {
+            arena.release(ring);
+        }
+    }
+
+    private static long issue(final AsynchronousFileChannel in, final ByteBuffer buffer, final long position, final long remaining, final ArrayDeque<Read> reads) {
+        if (remaining <= 0)
+            return 0;
+        final int length = (int) Math.min(SLICE - position % SLICE, remaining); // slices stay aligned for the checksum blocks
+        buffer.clear().limit(length);
+        reads.add(new Read(buffer, position, in.read(buffer, position)));
+        return length;
+    }
+
+    private static int await(final Future<Integer> pending) throws IOException { // rides out interrupts, a cancel is noticed between slices
+        boolean interrupted = false;
+        try {
+            while (true)
+                try {
+                    return pending.get();
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                } catch (final ExecutionException e) {
+                    throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    // writes each run of blocks holding data in one call and seeks over all-zero blocks, returns the bytes left as holes
+    private static long writeSparse(final FileChannel out, final ByteBuffer buffer, final long position) throws IOException {
+        long holes = 0;
+        int runStart = 0;
+        for (int block = 0; block < buffer.limit(); block += BLOCK) {
+            final int length = Math.min(BLOCK, buffer.limit() - block);
+            if (!SPARSE || buffer.slice(block, length).mismatch(ZEROES.slice(0, length)) >= 0)
+                continue;
+            write(out, buffer, runStart, block, position);
+            runStart = block + length;
+            holes += length;
+        }
+        write(out, buffer, runStart, buffer.limit(), position);
+        return holes;
+    }
+
+    private static void write(final FileChannel out, final ByteBuffer buffer, final int from, final int to, final long position) throws IOException {
+        final ByteBuffer run = buffer.slice(from, to - from);
+        while (run.hasRemaining())
+            out.write(run, position + from + run.position());
+    }
+}
@@ -0,0 +1,248 @@
+package core;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+final class ContentSearcher { // grep over a subtree: mmap for big files, pooled buffers for small ones, literal prefilter before regex
+    private static final int MAP_THRESHOLD = 1 << 20; // files below this are read whole into a pooled buffer
+    private static final long CHUNK_SIZE = 16L << 20; // big files are searched in chunks of this many bytes in parallel
+    private static final int MAX_LINE = 1 << 20, MAX_SHOWN = 256, BINARY_PROBE = 8192;
+    private static final int POOLED_BUFFERS = 2 * Runtime.getRuntime().availableProcessors();
+    private static final ConcurrentLinkedQueue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<>();
+
+    private final Path root;
+    private final Pattern pattern; // null when the whole pattern is a literal
+    private final byte[] needle; // literal every matching line contains, null if the regex has none
+    private final int[] skip = new int[256];
+    private final int limit;
+    private final Consumer<String> onMatch;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicBoolean stop = new AtomicBoolean();
+
+    ContentSearcher(final Path root, final String patternString, final int maxResults, final Consumer<String> onMatch) {
+        this.root = root;
+        this.limit = maxResults > 0 ? maxResults : Integer.MAX_VALUE;
+        this.onMatch = onMatch;
+        final Pattern compiled = Pattern.compile(patternString);
+        if (isLiteral(patternString)) {
+            pattern = null; // no metacharacters at all, bytes alone decide
+            needle = patternString.getBytes(StandardCharsets.UTF_8);
+        } else {
+            pattern = compiled;
+            String longest = null;
+            if (FilenameIndex.isCaseSensitive(compiled)) // a byte prefilter would skip files holding the literal in another case
+                for (final String literal : FilenameIndex.requiredLiterals(compiled))
+                    if (longest == null || literal.length() > longest.length())
+                        longest = literal;
+            needle = longest == null ? null : longest.getBytes(StandardCharsets.UTF_8);
+        }
+        if (needle != null) { // Boyer-Moore-Horspool bad character table
+            Arrays.fill(skip, needle.length);
+            for (int i = 0; i < needle.length - 1; i++)
+                skip[needle[i] & 0xff] = needle.length - 1 - i;
+        }
+    }
+
+    int search(final ListOption opt) {
+        ParallelTreeWalker.walk(root, Integer.MAX_VALUE, opt, stop, (path, attrs, depth) -> {
+            if (attrs.isRegularFile() && attrs.size() > 0)
+                try {
+                    searchFile(path, attrs);
+                } catch (final IOException | UncheckedIOException e) {
+                    if (Entity.DEBUG)
+                        System.out.println("CANNOT SEARCH " + path + ": " + e);
+                }
+        });
+        return Math.min(hits.get(), limit);
+    }
+
+    private void searchFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+        final String name = root.relativize(file).toString();
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size < MAP_THRESHOLD) {
+                final ByteBuffer buffer = takeBuffer();
+                try {
+                    while (buffer.position() < size && channel.read(buffer) >= 0)
+                        ;
+                    buffer.flip();
+                    if (!isBinary(buffer, buffer.limit()))
+                        emit(name, 0, scanRegion(buffer, 0, buffer.limit()));
+                } finally {
+                    buffer.clear();
+                    if (bufferPool.size() < POOLED_BUFFERS)
+                        bufferPool.offer(buffer);
+                }
+                return;
+            }
+            if (isBinary(channel.map(FileChannel.MapMode.READ_ONLY, 0, BINARY_PROBE), BINARY_PROBE))
+                return;
+            final List<ChunkTask> chunks = new ArrayList<>();
+            for (long start = 0; start < size; start += CHUNK_SIZE)
+                chunks.add(new ChunkTask(channel, start, Math.min(size, start + CHUNK_SIZE), size));
+            ForkJoinTask.invokeAll(chunks); // we run inside the walker's pool, so idle workers help with this file
+            long linesBefore = 0;
+            for (final ChunkTask chunk : chunks) {
+                final ChunkResult result = chunk.join();
+                emit(name, linesBefore, result);
+                linesBefore += result.newlines;
+            }
+        }
+    }
+
+    private void emit(final String name, final long linesBefore, final ChunkResult result) {
+        for (int i = 0; i < result.lineNumbers.size(); i++) {
+            final int hit = hits.incrementAndGet();
+            if (hit > limit)
+                return;
+            onMatch.accept(name + ':' + (linesBefore + result.lineNumbers.get(i)) + ": " + result.lines.get(i));
+            if (hit == limit)
+                stop.set(true);
+        }
+    }
+
+    private static final class ChunkResult {
+        private final List<Long> lineNumbers = new ArrayList<>(); // 1-based, relative to the start of the chunk
+        private final List<String> lines = new ArrayList<>();
+        private long newlines;
+    }
+
+    private final class ChunkTask extends RecursiveTask<ChunkResult> {
+        private static final long serialVersionUID = 1L;
+        private final transient FileChannel channel;
+        private final long start, end, size;
+
+        ChunkTask(final FileChannel channel, final long start, final long end, final long size) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.size = size;
+        }
+
+        @Override
+        protected ChunkResult compute() {
+            try {
+                final long mapStart = Math.max(0, start - 1); // one byte back tells whether a line starts exactly at start
+                final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, Math.min(size, end + MAX_LINE) - mapStart);
+                int ownStart = (int) (start - mapStart);
+                if (start > 0 && buffer.get(ownStart - 1) != '\n')
+                    ownStart = nextLineStart(buffer, ownStart, buffer.limit()); // that line belongs to the previous chunk
+                final int ownEnd = end == size ? buffer.limit() : nextLineStart(buffer, (int) (end - mapStart), buffer.limit());
+                return scanRegion(buffer, ownStart, Math.max(ownStart, ownEnd));
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // reports every line starting in [from, to) that matches, and counts the newlines in that range
+    private ChunkResult scanRegion(final ByteBuffer buffer, final int from, final int to) {
+        final ChunkResult result = new ChunkResult();
+        int countedUpTo = from;
+        long line = 1;
+        int pos = from;
+        while (pos < to && !stop.get()) {
+            final int lineStart, lineEnd;
+            if (needle != null) {
+                final int found = indexOf(buffer, pos, to);
+                if (found < 0)
+                    break;
+                lineStart = previousLineStart(buffer, found, pos);
+                lineEnd = lineEnd(buffer, found, to);
+            } else {
+                lineStart = pos;
+                lineEnd = lineEnd(buffer, pos, to);
+            }
+            line += countNewlines(buffer, countedUpTo, lineStart);
+            countedUpTo = lineStart;
+            final String text = decode(buffer, lineStart, lineEnd);
+            if (pattern == null || pattern.matcher(text).find()) {
+                result.lineNumbers.add(line);
+                result.lines.add(text.length() > MAX_SHOWN ? text.substring(0, MAX_SHOWN) + "..." : text);
+            }
+            pos = lineEnd + 1;
+        }
+        result.newlines = line - 1 + countNewlines(buffer, countedUpTo, to);
+        return result;
+    }
+
+    private int indexOf(final ByteBuffer buffer, final int from, final int to) { // Boyer-Moore-Horspool
+        final int last = needle.length - 1;
+        for (int i = from; i + last < to;) {
+            int j = last;
+            while (j >= 0 && buffer.get(i + j) == needle[j])
+                j--;
+            if (j < 0)
+                return i;
+            i += skip[buffer.get(i + last) & 0xff];
+        }
+        return -1;
+    }
+
+    private static int previousLineStart(final ByteBuffer buffer, int pos, final int floor) {
+        while (pos > floor && buffer.get(pos - 1) != '\n')
+            pos--;
+        return pos;
+    }
+
+    private static int lineEnd(final ByteBuffer buffer, int pos, final int to) {
+        final int max = Math.min(buffer.limit(), Math.max(to, pos + MAX_LINE));
+        while (pos < max && buffer.get(pos) != '\n')
+            pos++;
+        return pos;
+    }
+
+    private static int nextLineStart(final ByteBuffer buffer, final int pos, final int max) {
+        final int end = lineEnd(buffer, pos, max);
+        return Math.min(max, end + 1);
+    }
+
+    private static long countNewlines(final ByteBuffer buffer, final int from, final int to) {
+        long count = 0;
+        for (int i = from; i < to; i++)
+            if (buffer.get(i) == '\n')
+                count++;
+        return count;
+    }
+
+    private static String decode(final ByteBuffer buffer, final int from, final int to) {
+        final byte[] bytes = new byte[Math.min(to - from, MAX_LINE)];
+        buffer.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isBinary(final ByteBuffer buffer, final int length) {
+        for (int i = 0; i < Math.min(length, BINARY_PROBE); i++)
+            if (buffer.get(i) == 0)
+                return true;
+        return false;
+    }
+
+    private static boolean isLiteral(final String patternString) {
+        for (int i = 0; i < patternString.length(); i++)
+            if ("\\.[]{}()*+?^$|".indexOf(patternString.charAt(i)) >= 0)
+                return false;
+        return !patternString.isEmpty();
+    }
+
+    private static ByteBuffer takeBuffer() {
+        final ByteBuffer pooled = bufferPool.poll();
+        return pooled != null ? pooled : ByteBuffer.allocate(MAP_THRESHOLD);
+    }
+}
@@ -0,0 +1,42 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+final class CopyBatcher<T> { // groups small files into work units capped by count and bytes, a big file always makes a unit of its own
+    static final int UNIT_FILES = Math.max(1, Integer.getInteger("explorer.copy.batchFiles", 256));
+    static final long UNIT_BYTES = Long.getLong("explorer.copy.batchBytes", 16L * 1024 * 1024);
+    static final long SMALL_FILE = Long.getLong("explorer.copy.smallFile", 1024 * 1024); // anything bigger is worth a task of its own and goes to the sliced or chunked path
+
+    private final Consumer<List<T>> onUnit;
+    private List<T> unit = new ArrayList<>();
+    private long unitBytes;
+
+    CopyBatcher(final Consumer<List<T>> onUnit) {
+        this.onUnit = onUnit;
+    }
+
+    static boolean isSmall(final long size) {
+        return size <= SMALL_FILE;
+    }
+
+    void add(final T file, final long size) {
+        if (!isSmall(size)) {
+            onUnit.accept(List.of(file));
+            return;
+        }
+        if (unit.size() == UNIT_FILES || unitBytes + size > UNIT_BYTES)
+            flush();
+        unit.add(file);
+        unitBytes += size;
+    }
+
+    void flush() {
+        if (unit.isEmpty())
+            return;
+        onUnit.accept(unit);
+        unit = new ArrayList<>();
+        unitBytes = 0;
+    }
+}
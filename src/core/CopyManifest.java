@@ -0,0 +1,45 @@
+package core;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+final class CopyManifest { // checksums taken while copying, one hidden text file per destination folder, the last line for a name wins
+    static final String FILE_NAME = ".explorer-manifest";
+
+    record Entry(long checksum, long size) {
+    }
+
+    private CopyManifest() {
+    }
+
+    static void record(final Path copy, final long checksum, final long size) throws IOException {
+        final String line = Long.toHexString(checksum) + ' ' + size + ' ' + copy.getFileName() + '\n';
+        synchronized (CopyManifest.class) { // whole lines only, copies into the same folder append concurrently
+            Files.writeString(copy.resolveSibling(FILE_NAME), line, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    static Map<String, Entry> load(final Path manifest) throws IOException {
+        final Map<String, Entry> entries = new LinkedHashMap<>();
+        try {
+            for (final String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                final String[] fields = line.split(" ", 3);
+                if (fields.length == 3)
+                    try {
+                        entries.put(fields[2], new Entry(Long.parseUnsignedLong(fields[0], 16), Long.parseLong(fields[1])));
+                    } catch (final NumberFormatException e) {
+                        // torn line from a crash, skip it
+                    }
+            }
+        } catch (final NoSuchFileException e) {
+            // nothing recorded yet
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,6 @@
+package core;
+
+public enum CopyOption {
+    VERIFY, // checksum the bytes as they stream through, then read the copy back and compare before it is renamed into place
+    MANIFEST // record the streamed checksum next to the copy, for a later verify
+}
@@ -0,0 +1,197 @@
+package core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.EnumSet;
+
+final class DeltaSync { // rsync style update of an existing file: blocks the old file already has are taken from it, only the rest is read from the source
+    private static final long THRESHOLD = Long.getLong("explorer.sync.deltaThreshold", 8L * 1024 * 1024); // below this a plain copy is cheaper
+    private static final boolean IN_PLACE = Boolean.getBoolean("explorer.sync.inPlace"); // rsync --inplace, writes only what changed but a cancel or crash leaves dest half patched
+    private static final int SEGMENT_SHIFT = 30; // sources are mapped in 1GiB segments
+
+    private DeltaSync() {
+    }
+
+    static boolean shouldUse(final long size) {
+        return size >= THRESHOLD;
+    }
+
+    static boolean inPlace() {
+        return IN_PLACE;
+    }
+
+    static int blockSize(final long size) { // about sqrt(size) like rsync, a power of two between 4KiB and 128KiB
+        final long root = (long) Math.sqrt((double) size);
+        return (int) Math.max(4096, Math.min(128 * 1024, Long.highestOneBit(Math.max(1, root))));
+    }
+
+    // scans src with a rolling checksum against block signatures of basis and writes the new file to target, patching basis itself when they are the same path
+    static void update(final Path src, final Path basis, final Path target, final Job job) throws IOException {
+        final boolean inPlace = basis.equals(target);
+        try (final FileChannel in = FileChannel.open(src, StandardOpenOption.READ);
+                final FileChannel old = FileChannel.open(basis, inPlace ? EnumSet.of(StandardOpenOption.READ, StandardOpenOption.WRITE) : EnumSet.of(StandardOpenOption.READ));
+                final FileChannel out = inPlace ? old : FileChannel.open(target, EnumSet.of(StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), ChunkedFileCopier.modeOf(basis))) {
+            final long srcSize = in.size();
+            final int block = blockSize(Math.max(srcSize, old.size()));
+            final Signatures signatures = new Signatures(old, block, inPlace);
+            final Source source = new Source(in, srcSize);
+            final ByteBuffer moved = ByteBuffer.allocate(block);
+            final byte[] window = new byte[block];
+            long literalStart = 0, position = 0;
+            int a = 0, b = 0;
+            boolean rolling = false;
+            while (position + block <= srcSize) {
+                if (!rolling) { // checksum of the window at position from scratch, needed after every match
+                    a = 0;
+                    b = 0;
+                    for (int i = 0; i < block; i++) {
+                        final int x = source.byteAt(position + i) & 0xff;
+                        a += x;
+                        b += (block - i) * x;
+                    }
+                    rolling = true;
+                }
+                final int match = signatures.find(a & 0xffff | (b & 0xffff) << 16, source, position, window);
+                if (match >= 0) {
+                    job.checkCancelled();
+                    write(in, out, literalStart, position - literalStart, job);
+                    final long matchOffset = (long) match * block;
+                    if (inPlace && matchOffset == position)
+                        job.addSaved(block); // already in place, nothing to write
+                    else { // in place it lives further on and has not been overwritten yet, otherwise the old file is only read
+                        if (!inPlace)
+                            job.addSaved(block);
+                        moved.clear();
+                        while (moved.hasRemaining() && old.read(moved, matchOffset + moved.position()) >= 0)
+                            ;
+                        moved.flip();
+                        while (moved.hasRemaining())
+                            out.write(moved, position + moved.position());
+                    }
+                    job.addBytes(block);
+                    position += block;
+                    literalStart = position;
+                    rolling = false;
+                    continue;
+                }
+                if (position + block < srcSize) { // roll one byte forward
+                    final int leaving = source.byteAt(position) & 0xff, entering = source.byteAt(position + block) & 0xff;
+                    a += entering - leaving;
+                    b += a - block * leaving;
+                }
+                position++;
+            }
+            write(in, out, literalStart, srcSize - literalStart, job);
+            out.truncate(srcSize);
+        }
+    }
+
+    private static void write(final FileChannel in, final FileChannel out, final long start, final long count, final Job job) throws IOException {
+        long copied = 0;
+        while (copied < count) {
+            job.checkCancelled();
+            in.position(start + copied);
+            final long transferred = out.transferFrom(in, start + copied, Math.min(ChunkedFileCopier.SLICE, count - copied));
+            if (transferred <= 0)
+                throw new IOException("Source shrank while syncing");
+            copied += transferred;
+            job.addBytes(transferred);
+        }
+    }
+
+    private static final class Source { // random byte access over a memory-mapped file of any size
+        private final MappedByteBuffer[] segments;
+
+        Source(final FileChannel channel, final long size) throws IOException {
+            segments = new MappedByteBuffer[(int) ((size + (1L << SEGMENT_SHIFT) - 1) >>> SEGMENT_SHIFT)];
+            for (int i = 0; i < segments.length; i++) {
+                final long start = (long) i << SEGMENT_SHIFT;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(1L << SEGMENT_SHIFT, size - start));
+            }
+        }
+
+        byte byteAt(final long position) {
+            return segments[(int) (position >>> SEGMENT_SHIFT)].get((int) (position & ((1L << SEGMENT_SHIFT) - 1)));
+        }
+
+        void read(final long position, final byte[] into) {
+            for (int i = 0; i < into.length; i++)
+                into[i] = byteAt(position + i);
+        }
+    }
+
+    private static final class Signatures { // weak rolling checksum and MD5 per full block of the old file, weak ones hashed into chains
+        private final int block;
+        private final boolean inPlace;
+        private final int[] weak, heads, next;
+        private final byte[][] strong;
+        private final int mask;
+        private final MessageDigest md5;
+
+        Signatures(final FileChannel dest, final int block, final boolean inPlace) throws IOException {
+            this.block = block;
+            this.inPlace = inPlace;
+            final int blocks = (int) (dest.size() / block);
+            weak = new int[blocks];
+            strong = new byte[blocks][];
+            next = new int[blocks];
+            heads = new int[Integer.highestOneBit(Math.max(1, blocks)) * 2];
+            mask = heads.length - 1;
+            Arrays.fill(heads, -1);
+            try {
+                md5 = MessageDigest.getInstance("MD5");
+            } catch (final NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+            final ByteBuffer buffer = ByteBuffer.allocate(block);
+            for (int i = 0; i < blocks; i++) {
+                buffer.clear();
+                while (buffer.hasRemaining() && dest.read(buffer, (long) i * block + buffer.position()) >= 0)
+                    ;
+                int a = 0, b = 0;
+                for (int j = 0; j < block; j++) {
+                    final int x = buffer.get(j) & 0xff;
+                    a += x;
+                    b += (block - j) * x;
+                }
+                weak[i] = a & 0xffff | (b & 0xffff) << 16;
+                strong[i] = md5.digest(buffer.array());
+                final int slot = slot(weak[i]);
+                next[i] = heads[slot];
+                heads[slot] = i;
+            }
+        }
+
+        private int slot(final int weakSum) {
+            return (weakSum * 0x9E3779B9) >>> 16 & mask;
+        }
+
+        // a block usable at position: in place first, else any block, at or after position when patching in place (earlier ones may already be rewritten)
+        int find(final int weakSum, final Source source, final long position, final byte[] window) {
+            byte[] digest = null;
+            int best = -1;
+            for (int i = heads[slot(weakSum)]; i >= 0; i = next[i]) {
+                if (weak[i] != weakSum || inPlace && (long) i * block < position)
+                    continue;
+                if (digest == null) {
+                    source.read(position, window);
+                    digest = md5.digest(window);
+                }
+                if (!MessageDigest.isEqual(digest, strong[i]))
+                    continue;
+                if ((long) i * block == position)
+                    return i;
+                if (best < 0 || i < best)
+                    best = i;
+            }
+            return best;
+        }
+    }
+}
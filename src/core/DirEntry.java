@@ -0,0 +1,11 @@
+package core;
+
+public record DirEntry(String name, Kind kind, long size, long lastModifiedMillis, boolean hidden) {
+    public enum Kind {
+        FILE, DIRECTORY, OTHER
+    }
+
+    long weight() { // rough heap footprint, used to bound the listing cache
+        return 80 + 2L * name.length();
+    }
+}
@@ -0,0 +1,300 @@
+package core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public final class DirectoryCursor implements Iterator<DirEntry>, AutoCloseable { // pages through a directory without materializing it
+    public static final Comparator<DirEntry> BY_NAME = Comparator.comparing(DirEntry::name);
+    public static final Comparator<DirEntry> FOLDERS_FIRST = Comparator.comparingInt((final DirEntry entry) -> entry.kind() == DirEntry.Kind.DIRECTORY ? 0 : entry.kind() == DirEntry.Kind.FILE ? 1 : 2).thenComparing(DirEntry::name);
+    static final int RUN_SIZE = Integer.getInteger("explorer.listing.runSize", 100_000); // entries sorted in memory before spilling a run
+
+    private final int pageSize;
+    private final List<Closeable> resources = new ArrayList<>();
+    private Iterator<DirEntry> source = Collections.emptyIterator();
+    private int remaining;
+
+    static DirectoryCursor empty(final int pageSize) {
+        return new DirectoryCursor(pageSize, 0);
+    }
+
+    private DirectoryCursor(final int pageSize, final int limit) {
+        if (pageSize <= 0)
+            throw new IllegalArgumentException("Bad Page Size: " + pageSize);
+        this.pageSize = pageSize;
+        this.remaining = limit > 0 ? limit : Integer.MAX_VALUE;
+    }
+
+    // order == null streams in directory order; limit > 0 keeps only the first limit entries of that order
+    DirectoryCursor(final Path dir, final ListOption opt, final Comparator<DirEntry> order, final int limit, final int pageSize) throws IOException {
+        this(pageSize, limit);
+        final DirectoryListingCache.Listing cached = DirectoryListingCache.peek(dir);
+        if (cached != null) {
+            final List<DirEntry> entries = new ArrayList<>();
+            for (final DirEntry entry : cached.entries())
+                if (opt == ListOption.SHOW_HIDDEN || !entry.hidden())
+                    entries.add(entry);
+            if (order != null)
+                entries.sort(order);
+            source = entries.iterator();
+            return;
+        }
+        final ScanIterator scan = new ScanIterator(dir, opt);
+        resources.add(scan);
+        try {
+            if (order == null)
+                source = scan;
+            else if (limit > 0 && limit <= RUN_SIZE)
+                source = topK(scan, order, limit);
+            else
+                source = externalSort(scan, order);
+        } catch (final IOException | RuntimeException e) {
+            close(); // drops spilled runs
+            throw e;
+        }
+    }
+
+    public List<DirEntry> nextPage() {
+        final List<DirEntry> page = new ArrayList<>(Math.min(pageSize, 1024));
+        while (page.size() < pageSize && hasNext())
+            page.add(next());
+        return page;
+    }
+
+    public Stream<DirEntry> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(this::close);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return remaining > 0 && source.hasNext();
+    }
+
+    @Override
+    public DirEntry next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        remaining--;
+        return source.next();
+    }
+
+    @Override
+    public void close() {
+        for (final Closeable resource : resources)
+            try {
+                resource.close();
+            } catch (final IOException e) {
+                if (Entity.DEBUG)
+                    e.printStackTrace();
+            }
+        resources.clear();
+        source = Collections.emptyIterator();
+    }
+
+    private static Iterator<DirEntry> topK(final Iterator<DirEntry> scan, final Comparator<DirEntry> order, final int k) {
+        final PriorityQueue<DirEntry> kept = new PriorityQueue<>(k, order.reversed()); // head is the worst entry kept so far
+        while (scan.hasNext()) {
+            final DirEntry entry = scan.next();
+            if (kept.size() < k)
+                kept.add(entry);
+            else if (order.compare(entry, kept.peek()) < 0) {
+                kept.poll();
+                kept.add(entry);
+            }
+        }
+        final List<DirEntry> sorted = new ArrayList<>(kept);
+        sorted.sort(order);
+        return sorted.iterator();
+    }
+
+    private Iterator<DirEntry> externalSort(final Iterator<DirEntry> scan, final Comparator<DirEntry> order) throws IOException {
+        final List<RunReader> runs = new ArrayList<>();
+        List<DirEntry> run = new ArrayList<>();
+        while (scan.hasNext()) {
+            run.add(scan.next());
+            if (run.size() == RUN_SIZE) {
+                runs.add(spill(run, order));
+                run = new ArrayList<>();
+            }
+        }
+        run.sort(order);
+        if (runs.isEmpty())
+            return run.iterator();
+        if (!run.isEmpty())
+            runs.add(spill(run, order));
+        if (Entity.DEBUG)
+            System.out.println("MERGING " + runs.size() + " SORTED RUNS");
+        return new MergeIterator(runs, order);
+    }
+
+    private RunReader spill(final List<DirEntry> run, final Comparator<DirEntry> order) throws IOException {
+        run.sort(order);
+        final Path file = Files.createTempFile("explorer-listing-run", ".bin");
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            for (final DirEntry entry : run) {
+                out.writeUTF(entry.name());
+                out.writeByte(entry.kind().ordinal());
+                out.writeLong(entry.size());
+                out.writeLong(entry.lastModifiedMillis());
+                out.writeBoolean(entry.hidden());
+            }
+        }
+        final RunReader reader = new RunReader(file);
+        resources.add(reader);
+        return reader;
+    }
+
+    private static final class ScanIterator implements Iterator<DirEntry>, Closeable { // lazy, offers small listings to the cache
+        private final Path dir;
+        private final ListOption opt;
+        private final DirectoryStream<Path> stream;
+        private final Iterator<Path> paths;
+        private final Object cacheToken;
+        private List<DirEntry> cacheable = new ArrayList<>();
+        private DirEntry next;
+
+        ScanIterator(final Path dir, final ListOption opt) throws IOException {
+            this.dir = dir;
+            this.opt = opt;
+            this.cacheToken = DirectoryListingCache.beginLoad(dir);
+            try {
+                this.stream = Files.newDirectoryStream(dir);
+            } catch (final IOException e) {
+                DirectoryListingCache.abandonLoad(dir, cacheToken);
+                throw e;
+            }
+            this.paths = stream.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                final DirEntry entry;
+                try {
+                    if (!paths.hasNext()) {
+                        finish();
+                        return false;
+                    }
+                    entry = DirectoryListingCache.readEntry(paths.next());
+                } catch (final NoSuchFileException e) {
+                    continue; // deleted while we were listing
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (final DirectoryIteratorException e) {
+                    throw new UncheckedIOException(e.getCause());
+                }
+                if (cacheable != null) {
+                    cacheable.add(entry);
+                    if (cacheable.size() > RUN_SIZE)
+                        cacheable = null; // too big to be worth caching, stay constant memory
+                }
+                if (opt == ListOption.SHOW_HIDDEN || !entry.hidden())
+                    next = entry;
+            }
+            return true;
+        }
+
+        @Override
+        public DirEntry next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            final DirEntry entry = next;
+            next = null;
+            return entry;
+        }
+
+        private void finish() throws IOException {
+            if (cacheable != null) {
+                cacheable.sort(BY_NAME);
+                DirectoryListingCache.completeLoad(dir, cacheToken, cacheable);
+                cacheable = null;
+            }
+            close();
+        }
+
+        @Override
+        public void close() throws IOException {
+            DirectoryListingCache.abandonLoad(dir, cacheToken);
+            stream.close();
+        }
+    }
+
+    private static final class RunReader implements Closeable {
+        private final Path file;
+        private final DataInputStream in;
+        private DirEntry head;
+
+        RunReader(final Path file) throws IOException {
+            this.file = file;
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+            advance();
+        }
+
+        void advance() throws IOException {
+            try {
+                head = new DirEntry(in.readUTF(), DirEntry.Kind.values()[in.readByte()], in.readLong(), in.readLong(), in.readBoolean());
+            } catch (final EOFException e) {
+                head = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static final class MergeIterator implements Iterator<DirEntry> { // k-way merge, holds one entry per run
+        private final PriorityQueue<RunReader> heads;
+
+        MergeIterator(final List<RunReader> runs, final Comparator<DirEntry> order) {
+            heads = new PriorityQueue<>(runs.size(), (a, b) -> order.compare(a.head, b.head));
+            for (final RunReader run : runs)
+                if (run.head != null)
+                    heads.add(run);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public DirEntry next() {
+            final RunReader run = heads.poll();
+            if (run == null)
+                throw new NoSuchElementException();
+            final DirEntry entry = run.head;
+            try {
+                run.advance();
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (run.head != null)
+                heads.add(run);
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package core;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+final class DirectoryListingCache { // LRU of directory listings, invalidated by WatchService events and by our own mutations
+    static final class Listing {
+        private final List<DirEntry> entries;
+        private final long weight;
+        private final long loadedAt = System.currentTimeMillis();
+
+        private Listing(final List<DirEntry> entries) {
+            this.entries = Collections.unmodifiableList(entries);
+            long weight = 0;
+            for (final DirEntry entry : entries)
+                weight += entry.weight();
+            this.weight = weight;
+        }
+
+        List<DirEntry> entries() {
+            return entries;
+        }
+    }
+
+    private static final long MAX_ENTRIES = Long.getLong("explorer.listingCache.maxEntries", 1_000_000);
+    private static final long MAX_BYTES = Long.getLong("explorer.listingCache.maxBytes", 64L * 1024 * 1024);
+    private static final long TTL_MILLIS = Long.getLong("explorer.listingCache.ttlMillis", 30_000); // safety net for remote changes inotify never sees (NFS)
+
+    private static final LinkedHashMap<Path, Listing> listings = new LinkedHashMap<>(16, 0.75f, true); // access order gives LRU
+    private static final Map<Path, WatchKey> watchKeys = new HashMap<>();
+    private static final Map<Path, Object> loading = new HashMap<>(); // a load is only cached if no invalidation raced it
+    private static long cachedEntries, cachedBytes;
+    private static WatchService watchService;
+
+    private DirectoryListingCache() {
+    }
+
+    static Listing get(final String directory) throws IOException {
+        final Path dir = Paths.get(directory).toAbsolutePath().normalize();
+        final Listing cached = peek(dir);
+        if (cached != null)
+            return cached;
+        final Object token = beginLoad(dir);
+        final Listing listing = new Listing(scan(dir));
+        completeLoad(dir, token, listing);
+        return listing;
+    }
+
+    static synchronized Listing peek(final Path dir) {
+        final Listing cached = listings.get(dir);
+        return cached != null && System.currentTimeMillis() - cached.loadedAt < TTL_MILLIS ? cached : null;
+    }
+
+    static Object beginLoad(final Path dir) { // null when the directory cannot be watched, its listing is then never cached
+        final Object token = new Object();
+        synchronized (DirectoryListingCache.class) {
+            loading.put(dir, token);
+        }
+        if (watch(dir)) // registered before the scan so no event between scan and put is lost
+            return token;
+        abandonLoad(dir, token);
+        return null;
+    }
+
+    static synchronized void abandonLoad(final Path dir, final Object token) {
+        if (token != null)
+            loading.remove(dir, token);
+    }
+
+    static void completeLoad(final Path dir, final Object token, final List<DirEntry> entriesSortedByName) {
+        completeLoad(dir, token, new Listing(entriesSortedByName));
+    }
+
+    private static synchronized void completeLoad(final Path dir, final Object token, final Listing listing) {
+        if (token != null && loading.remove(dir, token)) {
+            final Listing previous = listings.put(dir, listing);
+            if (previous != null)
+                forget(previous);
+            cachedEntries += listing.entries.size();
+            cachedBytes += listing.weight;
+            evict();
+        }
+    }
+
+    static synchronized void invalidate(final Path dir) {
+        final Path key = dir.toAbsolutePath().normalize();
+        loading.remove(key);
+        final WatchKey watchKey = watchKeys.remove(key);
+        if (watchKey != null)
+            watchKey.cancel(); // re-registered by the next load, keeps registrations bounded by the cache
+        final Listing removed = listings.remove(key);
+        if (removed != null) {
+            forget(removed);
+            if (Entity.DEBUG)
+                System.out.println("INVALIDATED LISTING OF " + key);
+        }
+    }
+
+    static void invalidate(final String... pathsAndNames) { // the parent listing and anything cached at or under the path
+        for (final String pathAndName : pathsAndNames) {
+            final Path path = Paths.get(pathAndName).toAbsolutePath().normalize();
+            if (path.getParent() != null)
+                invalidate(path.getParent());
+            synchronized (DirectoryListingCache.class) {
+                for (final Path dir : new ArrayList<>(listings.keySet()))
+                    if (dir.startsWith(path))
+                        invalidate(dir);
+            }
+        }
+    }
+
+    private static List<DirEntry> scan(final Path dir) throws IOException {
+        final List<DirEntry> entries = new ArrayList<>();
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) { // one pass feeds both files and folders
+            for (final Path child : stream)
+                entries.add(readEntry(child));
+        } catch (final DirectoryIteratorException e) {
+            throw e.getCause();
+        }
+        entries.sort(Comparator.comparing(DirEntry::name));
+        return entries;
+    }
+
+    static DirEntry readEntry(final Path child) throws IOException {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(child, BasicFileAttributes.class); // one stat gives kind, size and mtime
+        } catch (final NoSuchFileException e) {
+            attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS); // dangling symlink
+        }
+        final DirEntry.Kind kind = attrs.isDirectory() ? DirEntry.Kind.DIRECTORY : attrs.isRegularFile() ? DirEntry.Kind.FILE : DirEntry.Kind.OTHER;
+        return new DirEntry(child.getFileName().toString(), kind, attrs.size(), attrs.lastModifiedTime().toMillis(), Files.isHidden(child));
+    }
+
+    private static void forget(final Listing listing) {
+        cachedEntries -= listing.entries.size();
+        cachedBytes -= listing.weight;
+    }
+
+    private static void evict() {
+        final Iterator<Map.Entry<Path, Listing>> eldest = listings.entrySet().iterator();
+        while ((cachedEntries > MAX_ENTRIES || cachedBytes > MAX_BYTES) && eldest.hasNext()) {
+            final Map.Entry<Path, Listing> entry = eldest.next();
+            forget(entry.getValue());
+            eldest.remove();
+            final WatchKey key = watchKeys.remove(entry.getKey());
+            if (key != null)
+                key.cancel();
+            if (Entity.DEBUG)
+                System.out.println("EVICTED LISTING OF " + entry.getKey());
+        }
+    }
+
+    private static boolean watch(final Path dir) {
+        synchronized (DirectoryListingCache.class) {
+            final WatchKey existing = watchKeys.get(dir);
+            if (existing != null && existing.isValid())
+                return true;
+        }
+        try {
+            final WatchKey key = dir.register(watchService(), StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            synchronized (DirectoryListingCache.class) {
+                watchKeys.put(dir, key);
+            }
+            return true;
+        } catch (final IOException | UnsupportedOperationException e) {
+            if (Entity.DEBUG)
+                System.out.println("CANNOT WATCH " + dir + ", LISTING WILL NOT BE CACHED");
+            return false;
+        }
+    }
+
+    private static synchronized WatchService watchService() throws IOException {
+        if (watchService == null) {
+            watchService = FileSystems.getDefault().newWatchService();
+            final Thread watcher = new Thread(DirectoryListingCache::processEvents, "listing-cache-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+        return watchService;
+    }
+
+    private static void processEvents() {
+        try {
+            while (true) {
+                final WatchKey key = watchService.take();
+                for (final WatchEvent<?> event : key.pollEvents())
+                    if (Entity.DEBUG)
+                        System.out.println("WATCH EVENT " + event.kind() + " IN " + key.watchable());
+                invalidate((Path) key.watchable()); // OVERFLOW lands here as well
+                SubtreeSizeCache.invalidate(key.watchable().toString());
+                key.reset();
+            }
+        } catch (final InterruptedException | ClosedWatchServiceException e) {
+            if (Entity.DEBUG)
+                System.out.println("LISTING CACHE WATCHER STOPPED");
+        }
+    }
+}
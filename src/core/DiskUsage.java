@@ -0,0 +1,12 @@
+package core;
+
+import java.util.List;
+
+public record DiskUsage(long totalBytes, long fileCount, List<DirEntry> children) { // children carry subtree totals, largest first
+    public static String humanReadable(final long bytes) {
+        if (bytes < 1024)
+            return bytes + "B";
+        final int unit = (63 - Long.numberOfLeadingZeros(bytes)) / 10;
+        return String.format("%.1f%c", bytes / (double) (1L << (10 * unit)), "KMGTPE".charAt(unit - 1));
+    }
+}
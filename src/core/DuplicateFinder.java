@@ -0,0 +1,302 @@
+package core;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+final class DuplicateFinder { // walk groups by size, then head+tail hashes split those groups, only what still collides is read in full and compared byte for byte
+    private static final int PROBE = 4096; // bytes hashed at each end of a file in the second stage
+    private static final long MAP_CHUNK = 64L << 20; // full hashes map this much at a time, a multiple of 8 so words never straddle
+    private static final int QUEUE_CAPACITY = Integer.getInteger("explorer.dupes.queueCapacity", 1024);
+    private static final int WORKERS = Math.max(1, Integer.getInteger("explorer.dupes.workers", Runtime.getRuntime().availableProcessors())); // per stage
+
+    private final Path root;
+    private final ExecutorService pipeline = Executors.newFixedThreadPool(2 * WORKERS, task -> { // our own, so hashing never holds the shared pool's threads
+        final Thread thread = new Thread(task, "dupes-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<Long, Group> bySize = new ConcurrentHashMap<>();
+    private final Map<Key, Group> byProbe = new ConcurrentHashMap<>(), byContent = new ConcurrentHashMap<>();
+    private final AtomicLong probed = new AtomicLong(), hashed = new AtomicLong();
+    private final Stage probeStage, hashStage;
+
+    private record Candidate(Path path, long size) {
+    }
+
+    private record Key(long size, long hash) {
+    }
+
+    DuplicateFinder(final Path root) {
+        this.root = root;
+        this.probeStage = new Stage(this::probe, pipeline);
+        this.hashStage = new Stage(this::hashFully, pipeline);
+    }
+
+    List<DuplicateGroup> find(final ListOption opt) {
+        try {
+            return findGroups(opt);
+        } finally {
+            pipeline.shutdownNow();
+        }
+    }
+
+    private List<DuplicateGroup> findGroups(final ListOption opt) {
+        ParallelTreeWalker.walk(root, Integer.MAX_VALUE, opt, new AtomicBoolean(), (path, attrs, depth) -> {
+            if (attrs.isRegularFile() && attrs.size() > 0) // empty files are all alike and free to keep
+                for (final Candidate candidate : bySize.computeIfAbsent(attrs.size(), size -> new Group()).add(new Candidate(path, attrs.size())))
+                    probeStage.submit(candidate);
+        });
+        probeStage.close(); // every probe has run and handed its collisions on before the next stage can close
+        hashStage.close();
+        if (Entity.DEBUG)
+            System.out.println("DUPES " + bySize.size() + " SIZES, " + probed.get() + " PROBED, " + hashed.get() + " HASHED IN FULL");
+        final List<Future<List<List<Candidate>>>> verified = new ArrayList<>();
+        for (final Group group : byContent.values()) {
+            final List<Candidate> members = group.members();
+            if (members.size() > 1)
+                verified.add(submitOrRun(() -> splitByContent(members)));
+        }
+        final List<DuplicateGroup> groups = new ArrayList<>();
+        for (final Future<List<List<Candidate>>> future : verified)
+            for (final List<Candidate> identical : join(future))
+                if (identical.size() > 1)
+                    groups.add(new DuplicateGroup(identical.get(0).size(), relativeNames(identical)));
+        groups.sort(Comparator.comparingLong(DuplicateGroup::reclaimableBytes).reversed());
+        return groups;
+    }
+
+    private void probe(final Candidate candidate) throws IOException {
+        probed.incrementAndGet();
+        final boolean whole = candidate.size() <= 2 * PROBE; // both ends cover the file, this hash is final
+        final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(candidate.size(), 2 * PROBE));
+        try (final FileChannel channel = FileChannel.open(candidate.path(), StandardOpenOption.READ)) {
+            readFully(channel, buffer.limit(whole ? buffer.capacity() : PROBE), 0);
+            if (!whole)
+                readFully(channel, buffer.limit(2 * PROBE), candidate.size() - PROBE);
+        }
+        buffer.flip();
+        final Key key = new Key(candidate.size(), finish(hash(buffer, 0), candidate.size()));
+        if (whole)
+            byContent.computeIfAbsent(key, k -> new Group()).add(candidate);
+        else
+            for (final Candidate collision : byProbe.computeIfAbsent(key, k -> new Group()).add(candidate))
+                hashStage.submit(collision);
+    }
+
+    private void hashFully(final Candidate candidate) throws IOException {
+        hashed.incrementAndGet();
+        long h = 0;
+        try (final FileChannel channel = FileChannel.open(candidate.path(), StandardOpenOption.READ)) {
+            for (long start = 0; start < candidate.size(); start += MAP_CHUNK)
+                h = hash(channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(MAP_CHUNK, candidate.size() - start)), h);
+        }
+        byContent.computeIfAbsent(new Key(candidate.size(), finish(h, candidate.size())), k -> new Group()).add(candidate);
+    }
+
+    // a matching hash only nominates, every member is compared with the first of each class so far and joins the first it equals
+    private static List<List<Candidate>> splitByContent(final List<Candidate> members) {
+        final List<List<Candidate>> classes = new ArrayList<>();
+        for (final Candidate candidate : members)
+            try {
+                List<Candidate> home = null;
+                for (final List<Candidate> identical : classes)
+                    if (sameContent(identical.get(0), candidate)) {
+                        home = identical;
+                        break;
+                    }
+                if (home == null)
+                    classes.add(home = new ArrayList<>());
+                home.add(candidate);
+            } catch (final IOException | UncheckedIOException e) {
+                if (Entity.DEBUG)
+                    System.out.println("CANNOT COMPARE " + candidate.path() + ": " + e);
+            }
+        return classes;
+    }
+
+    private static boolean sameContent(final Candidate a, final Candidate b) throws IOException {
+        try (final FileChannel left = FileChannel.open(a.path(), StandardOpenOption.READ); final FileChannel right = FileChannel.open(b.path(), StandardOpenOption.READ)) {
+            if (left.size() != a.size() || right.size() != b.size())
+                throw new IOException("File changed while comparing");
+            for (long start = 0; start < a.size(); start += MAP_CHUNK) {
+                final long length = Math.min(MAP_CHUNK, a.size() - start);
+                if (left.map(FileChannel.MapMode.READ_ONLY, start, length).mismatch(right.map(FileChannel.MapMode.READ_ONLY, start, length)) >= 0)
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private <T> Future<T> submitOrRun(final Callable<T> task) {
+        try {
+            return pipeline.submit(task);
+        } catch (final RejectedExecutionException e) {
+            final FutureTask<T> inline = new FutureTask<>(task);
+            inline.run();
+            return inline;
+        }
+    }
+
+    private static <T> T join(final Future<T> future) {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("Interrupted while comparing"));
+        } catch (final ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private List<String> relativeNames(final List<Candidate> members) {
+        final List<String> names = new ArrayList<>();
+        for (final Candidate member : members)
+            names.add(root.relativize(member.path()).toString());
+        names.sort(null);
+        return names;
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+        long at = position;
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, at);
+            if (read < 0)
+                throw new IOException("File shrank while hashing");
+            at += read;
+        }
+    }
+
+    // multiply-rotate over 8-byte words, only picks which files get compared byte for byte
+    private static long hash(final ByteBuffer buffer, long h) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.remaining() >= Long.BYTES) {
+            long k = buffer.getLong() * 0xC2B2AE3D27D4EB4FL;
+            k = Long.rotateLeft(k, 31) * 0x9E3779B97F4A7C15L;
+            h = Long.rotateLeft(h ^ k, 27) * 5 + 0x52DCE729;
+        }
+        while (buffer.hasRemaining())
+            h = (h ^ (buffer.get() & 0xff)) * 0x100000001B3L;
+        return h;
+    }
+
+    private static long finish(long h, final long length) {
+        h ^= length;
+        h = (h ^ h >>> 33) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ h >>> 33) * 0xC4CEB9FE1A85EC53L;
+        return h ^ h >>> 33;
+    }
+
+    private static final class Group { // hands on nothing for a lone member, both on the first collision, each later one by itself
+        private final List<Candidate> members = new ArrayList<>();
+
+        synchronized List<Candidate> add(final Candidate candidate) {
+            members.add(candidate);
+            return members.size() == 1 ? List.of() : members.size() == 2 ? List.copyOf(members) : List.of(candidate);
+        }
+
+        synchronized List<Candidate> members() {
+            return List.copyOf(members);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Work {
+        void run(final Candidate candidate) throws IOException;
+    }
+
+    // up to WORKERS workers drain a bounded queue, started as work arrives and gone once it is empty, a producer that finds it full does the work itself
+    private static final class Stage {
+        private final BlockingQueue<Candidate> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final Work work;
+        private final ExecutorService executor;
+        private int workers; // guarded by this
+
+        Stage(final Work work, final ExecutorService executor) {
+            this.work = work;
+            this.executor = executor;
+        }
+
+        void submit(final Candidate candidate) {
+            if (!queue.offer(candidate)) {
+                process(candidate);
+                return;
+            }
+            synchronized (this) {
+                if (workers >= WORKERS)
+                    return;
+                workers++;
+            }
+            try {
+                executor.execute(this::drain);
+            } catch (final RejectedExecutionException e) {
+                synchronized (this) {
+                    workers--;
+                    notifyAll();
+                }
+            }
+        }
+
+        void close() { // callers stop submitting first, whatever is still queued runs here if no worker is left to take it
+            Candidate candidate;
+            while ((candidate = queue.poll()) != null)
+                process(candidate);
+            synchronized (this) {
+                while (workers > 0)
+                    try {
+                        wait();
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                final Candidate candidate = queue.poll();
+                if (candidate != null) {
+                    process(candidate);
+                    continue;
+                }
+                synchronized (this) {
+                    if (queue.isEmpty()) { // a submit after this sees one worker fewer and starts another
+                        workers--;
+                        notifyAll();
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void process(final Candidate candidate) {
+            try {
+                work.run(candidate);
+            } catch (final IOException | UncheckedIOException e) {
+                if (Entity.DEBUG)
+                    System.out.println("CANNOT HASH " + candidate.path() + ": " + e);
+            }
+        }
+    }
+}
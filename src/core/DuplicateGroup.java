@@ -0,0 +1,9 @@
+package core;
+
+import java.util.List;
+
+public record DuplicateGroup(long size, List<String> files) { // identical files of one size, paths relative to the searched folder
+    public long reclaimableBytes() { // everything but one copy
+        return size * (files.size() - 1);
+    }
+}
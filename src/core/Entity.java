@@ -8,67 +8,11 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantLock;
 
 interface Entity {
     static final boolean DEBUG = false;
     static final Set<Character> ILLEGAL_CHARACTERS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList('/', '\\', ':', '*', '?', '"', '<', '>', '|')));
 
-    final static class CriticalSectionHandler {
-        private static final ConcurrentHashMap<String, ReentrantLock> lockedEntities = new ConcurrentHashMap<>();
-
-        static synchronized void lock(final String... pathsAndNames) {
-            for (final String pathAndName : pathsAndNames) {
-                if (DEBUG)
-                    System.out.println("TRYING TO LOCK " + pathAndName);
-                lockedEntities.computeIfAbsent(pathAndName, k -> new ReentrantLock()).lock();
-                if (DEBUG)
-                    System.out.println("LOCKED " + pathAndName);
-            }
-        }
-
-        static synchronized void lock(final Entity... entities) {
-            lock(Arrays.stream(entities).map(Object::toString).toArray(String[]::new));
-        }
-
-        static synchronized void unlock(final String... pathsAndNames) {
-            for (final String pathAndName : pathsAndNames) {
-                final ReentrantLock lock = lockedEntities.get(pathAndName);
-                if (lock != null && lock.isHeldByCurrentThread()) {
-                    if (DEBUG)
-                        System.out.println("TRYING TO UNLOCK " + pathAndName);
-                    lock.unlock();
-                    if (DEBUG)
-                        System.out.println("UNLOCKED " + pathAndName);
-                } else if (DEBUG)
-                    System.out.println("LOCK NOT FOUND/OWNED BY CALLER THREAD");
-            }
-        }
-
-        static synchronized void unlock(final Entity... entities) {
-            unlock(Arrays.stream(entities).map(Object::toString).toArray(String[]::new));
-        }
-
-        static synchronized boolean isLocked(final String... pathsAndNames) {
-            for (final String pathAndName : pathsAndNames) {
-                final ReentrantLock lock = lockedEntities.get(pathAndName);
-                if (!(lock != null && lock.isLocked())) {
-                    if (DEBUG)
-                        System.out.println(pathAndName + " NOT LOCKED");
-                    return false;
-                }
-            }
-            if (DEBUG)
-                System.out.println("ALL ENTITIES LOCKED");
-            return true;
-        }
-
-        static synchronized boolean isLocked(final Entity... entities) {
-            return isLocked(Arrays.stream(entities).map(Object::toString).toArray(String[]::new));
-        }
-    }
-
     @Override
     boolean equals(final Object obj);
 
@@ -99,29 +43,28 @@ interface Entity {
             else if (!Files.exists(Paths.get(destination, name)))
                 return ErrorCode.ENTITY_NOT_FOUND;
         final String[] pathsAndNames = Arrays.stream(names).map(name -> destination + name).toArray(String[]::new);
-        if (CriticalSectionHandler.isLocked(pathsAndNames))
-            return ErrorCode.ENTITY_IS_LOCKED;
-        CriticalSectionHandler.lock(pathsAndNames);
-        for (final String pathWithName : pathsAndNames) {
-            if (DEBUG)
-                System.out.println("DELETING " + pathWithName);
-            try {
-                Files.delete(Paths.get(pathWithName));
-            } catch (final NoSuchFileException e) {
-                CriticalSectionHandler.unlock(pathsAndNames);
-                return ErrorCode.FILE_NOT_FOUND;
-            } catch (final java.nio.file.DirectoryNotEmptyException e) {
-                CriticalSectionHandler.unlock(pathsAndNames);
-                return ErrorCode.DIR_NOT_EMPTY;
-            } catch (final IOException e) {
-                CriticalSectionHandler.unlock(pathsAndNames);
-                return ErrorCode.IO_ERROR;
-            } catch (final Exception e) {
-                CriticalSectionHandler.unlock(pathsAndNames);
-                return ErrorCode.UNKOWN_ERROR;
-            } finally {
-                CriticalSectionHandler.unlock(pathWithName);
+        try (final PathLockManager.Lease lease = PathLockManager.tryAcquireExclusive(pathsAndNames)) {
+            if (lease == null)
+                return ErrorCode.ENTITY_IS_LOCKED;
+            for (final String pathWithName : pathsAndNames) {
+                if (DEBUG)
+                    System.out.println("DELETING " + pathWithName);
+                try {
+                    Files.delete(Paths.get(pathWithName));
+                } catch (final NoSuchFileException e) {
+                    return ErrorCode.FILE_NOT_FOUND;
+                } catch (final java.nio.file.DirectoryNotEmptyException e) {
+                    return ErrorCode.DIR_NOT_EMPTY;
+                } catch (final IOException e) {
+                    return ErrorCode.IO_ERROR;
+                } catch (final Exception e) {
+                    return ErrorCode.UNKOWN_ERROR;
+                }
             }
+        } finally {
+            DirectoryListingCache.invalidate(pathsAndNames);
+            SubtreeSizeCache.invalidate(pathsAndNames);
+            FilenameIndex.refresh(pathsAndNames);
         }
         return ErrorCode.SUCCESS;
     }
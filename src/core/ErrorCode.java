@@ -12,7 +12,9 @@ public enum ErrorCode {
     ILLEGAL_NAME(8, "Name Contains Illegal Character"),
     IO_ERROR(9, "IO Exception"),
     OPERATION_NOT_SUPPORTED(10, "Operation Not Supported"),
-    UNKOWN_ERROR(11, "Unkown Error");
+    UNKOWN_ERROR(11, "Unkown Error"),
+    CANCELLED(12, "Operation Cancelled"),
+    VERIFY_FAILED(13, "Copy Does Not Match Source");
 
     private final int code;
     private final String message;
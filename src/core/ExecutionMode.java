@@ -0,0 +1,61 @@
+package core;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public enum ExecutionMode { // picked once per process with -Dexplorer.executor=fixed|virtual
+    FIXED, VIRTUAL;
+
+    static ExecutionMode fromProperty() {
+        final String mode = System.getProperty("explorer.executor", "fixed");
+        try {
+            return valueOf(mode.toUpperCase());
+        } catch (final IllegalArgumentException e) {
+            System.err.println("Unknown explorer.executor " + mode + ", using fixed");
+            return FIXED;
+        }
+    }
+
+    // the io scheduler starts no more jobs than this at once, so the virtual mode is bounded by choice rather than by cores
+    int defaultConcurrentJobs() {
+        return Integer.getInteger("explorer.maxConcurrentJobs", this == FIXED ? Runtime.getRuntime().availableProcessors() : 256);
+    }
+
+    // threads for jobs the io scheduler has admitted, never the shared pool, so its limits are the only gate in front of a job
+    ExecutorService newJobRunner() {
+        if (this == VIRTUAL)
+            return newExecutor();
+        return Executors.newCachedThreadPool(); // one thread per admitted job, idle ones time out
+    }
+
+    ExecutorService newExecutor() {
+        if (this == FIXED)
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        final Method factory = virtualFactory();
+        if (factory != null)
+            try {
+                return (ExecutorService) factory.invoke(null);
+            } catch (final ReflectiveOperationException e) {
+                // falls through to platform threads like a runtime without them
+            }
+        if (Entity.DEBUG)
+            System.out.println("VIRTUAL THREADS UNAVAILABLE, USING ONE PLATFORM THREAD PER TASK");
+        return Executors.newCachedThreadPool();
+    }
+
+    // what newExecutor really hands out on this runtime, virtual asked for on a JDK before 21 gets platform threads
+    public String describe() {
+        if (this == FIXED)
+            return "fixed pool of " + Runtime.getRuntime().availableProcessors() + " platform threads";
+        return virtualFactory() != null ? "virtual thread per task" : "platform thread per task, no virtual threads on java " + Runtime.version().feature();
+    }
+
+    private static Method virtualFactory() { // looked up reflectively so the tree still builds and runs on runtimes without virtual threads
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (final NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -16,17 +16,14 @@ public interface File extends Entity {
             return ErrorCode.OPERATION_NOT_SUPPORTED;
         if (!Files.exists(Path.of(path, name)))
             return ErrorCode.FILE_NOT_FOUND;
-        if (CriticalSectionHandler.isLocked(path + name))
-            return ErrorCode.ENTITY_IS_LOCKED;
-        CriticalSectionHandler.lock(path + name);
-        try {
+        try (final PathLockManager.Lease lease = PathLockManager.tryAcquireShared(path + name)) {
+            if (lease == null)
+                return ErrorCode.ENTITY_IS_LOCKED;
             Desktop.getDesktop().open(new java.io.File(path + name));
         } catch (final IOException e) {
             return ErrorCode.IO_ERROR;
         } catch (final Exception e) {
             return ErrorCode.UNKOWN_ERROR;
-        } finally {
-            CriticalSectionHandler.unlock(path + name);
         }
         return ErrorCode.SUCCESS;
     }
@@ -50,10 +47,9 @@ public interface File extends Entity {
             System.out.println("PROPERTIES OF " + path + name);
         if (!Files.exists(Path.of(path, name)))
             return ErrorCode.FILE_NOT_FOUND;
-        if (CriticalSectionHandler.isLocked(path + name))
-            return ErrorCode.ENTITY_IS_LOCKED;
-        CriticalSectionHandler.lock(path + name);
-        try {
+        try (final PathLockManager.Lease lease = PathLockManager.tryAcquireShared(path + name)) {
+            if (lease == null)
+                return ErrorCode.ENTITY_IS_LOCKED;
             final BasicFileAttributes attrs = Files.readAttributes(Paths.get(path + name), BasicFileAttributes.class);
             final java.io.File file = new java.io.File(path + name);
             System.out.println("Size: " + attrs.size());
@@ -69,8 +65,6 @@ public interface File extends Entity {
             return ErrorCode.IO_ERROR;
         } catch (final Exception e) {
             return ErrorCode.UNKOWN_ERROR;
-        } finally {
-            CriticalSectionHandler.unlock(path + name);
         }
         return ErrorCode.SUCCESS;
     }
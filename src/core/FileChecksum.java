@@ -0,0 +1,61 @@
+package core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+final class FileChecksum { // CRC32C of each aligned block folded in block order, so chunks copied in parallel hash independently
+    static final long BLOCK = ChunkedFileCopier.SLICE;
+
+    private final int[] blocks;
+
+    static final class MismatchException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        MismatchException(final Path copy) {
+            super("Copy does not match its source: " + copy);
+        }
+    }
+
+    FileChecksum(final long size) {
+        blocks = new int[(int) ((size + BLOCK - 1) / BLOCK)];
+    }
+
+    void update(final long offset, final ByteBuffer block) { // block is the whole aligned block at offset, or the file's tail
+        final CRC32C crc = new CRC32C();
+        crc.update(block.duplicate());
+        blocks[(int) (offset / BLOCK)] = (int) crc.getValue();
+    }
+
+    long value() {
+        final ByteBuffer folded = ByteBuffer.allocate(4 * blocks.length);
+        for (final int block : blocks)
+            folded.putInt(block);
+        final CRC32C crc = new CRC32C();
+        crc.update(folded.array());
+        return crc.getValue();
+    }
+
+    static long of(final Path file) throws IOException { // the same value computed by one sequential read
+        final ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final FileChecksum checksum = new FileChecksum(channel.size());
+            final CRC32C crc = new CRC32C();
+            long position = 0, blockStart = 0;
+            int read;
+            while ((read = channel.read(buffer.clear().limit((int) Math.min(buffer.capacity(), BLOCK - (position - blockStart))), position)) > 0) { // never straddles a block
+                crc.update(buffer.array(), 0, read);
+                position += read;
+                if (position - blockStart == BLOCK || position == channel.size()) {
+                    checksum.blocks[(int) (blockStart / BLOCK)] = (int) crc.getValue();
+                    crc.reset();
+                    blockStart = position;
+                }
+            }
+            return checksum.value();
+        }
+    }
+}
@@ -33,24 +33,17 @@ final class FileImpl implements File {
     }
 
     public void setPath(final String path) {
-        CriticalSectionHandler.lock(this);
         this.path = path;
-        CriticalSectionHandler.unlock(this);
     }
 
     public void setName(final String name) {
-        CriticalSectionHandler.lock(this);
         this.name = name;
-        CriticalSectionHandler.unlock(this);
     }
 
     public boolean doesExist() {
         if (DEBUG)
             System.out.println("CHECKING IF " + path + name + " EXISTS");
-        CriticalSectionHandler.lock(this);
-        final boolean result = Files.exists(Path.of(path, name));
-        CriticalSectionHandler.unlock(this);
-        return result;
+        return Files.exists(Path.of(path, name));
     }
 
     @Override
@@ -82,31 +75,30 @@ final class FileImpl implements File {
                     return ErrorCode.ILLEGAL_NAME;
         final String path = FolderImpl.getInstance().getPath() + FolderImpl.getInstance().getName() + '/';
         final String[] pathsAndNames = Arrays.stream(names).map(name -> path + (destination.equals(".") ? "" : destination) + name).toArray(String[]::new);
-        if (CriticalSectionHandler.isLocked(pathsAndNames))
-            return ErrorCode.ENTITY_IS_LOCKED;
-        CriticalSectionHandler.lock(pathsAndNames);
         if (!destination.equals(".") && (!Files.exists(Paths.get(path + destination)) || !Files.isDirectory(Paths.get(path + destination))))
             return ErrorCode.DIR_NOT_FOUND;
-        for (final String newFileNameWithPath : pathsAndNames) {
-            if (DEBUG)
-                System.out.println("CREATING " + newFileNameWithPath);
-            try {
-                Files.createFile(Paths.get(newFileNameWithPath));
-            } catch (final UnsupportedOperationException e) {
-                CriticalSectionHandler.unlock(pathsAndNames);
-                return ErrorCode.OPERATION_NOT_SUPPORTED;
-            } catch (final java.nio.file.FileAlreadyExistsException e) {
-                CriticalSectionHandler.unlock(pathsAndNames);
-                // return ErrorCode.FILE_ALREADY_EXISTS; // implies we replace existing
-            } catch (final IOException e) {
-                CriticalSectionHandler.unlock(pathsAndNames);
-                return ErrorCode.IO_ERROR;
-            } catch (final Exception e) {
-                CriticalSectionHandler.unlock(pathsAndNames);
-                return ErrorCode.UNKOWN_ERROR;
-            } finally {
-                CriticalSectionHandler.unlock(newFileNameWithPath);
+        try (final PathLockManager.Lease lease = PathLockManager.tryAcquireExclusive(pathsAndNames)) {
+            if (lease == null)
+                return ErrorCode.ENTITY_IS_LOCKED;
+            for (final String newFileNameWithPath : pathsAndNames) {
+                if (DEBUG)
+                    System.out.println("CREATING " + newFileNameWithPath);
+                try {
+                    Files.createFile(Paths.get(newFileNameWithPath));
+                } catch (final UnsupportedOperationException e) {
+                    return ErrorCode.OPERATION_NOT_SUPPORTED;
+                } catch (final java.nio.file.FileAlreadyExistsException e) {
+                    // return ErrorCode.FILE_ALREADY_EXISTS; // implies we replace existing
+                } catch (final IOException e) {
+                    return ErrorCode.IO_ERROR;
+                } catch (final Exception e) {
+                    return ErrorCode.UNKOWN_ERROR;
+                }
             }
+        } finally {
+            DirectoryListingCache.invalidate(pathsAndNames);
+            SubtreeSizeCache.invalidate(pathsAndNames);
+            FilenameIndex.refresh(pathsAndNames);
         }
         return ErrorCode.SUCCESS;
     }
@@ -0,0 +1,513 @@
+package core;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+final class FilenameIndex { // trigram index over file names, persisted as one memory-mapped file plus an in-memory overlay
+    private static final int MAGIC = 0x4D544649, VERSION = 1;
+    private static final Path INDEX_FILE = Paths.get(System.getProperty("user.home"), ".explorer-filename.idx");
+    private static final long MAX_AGE_MILLIS = Long.getLong("explorer.index.maxAgeMillis", 10 * 60 * 1000); // trusted this long without full watch coverage
+    private static final int MAX_WATCHES = Integer.getInteger("explorer.index.maxWatches", 8192);
+
+    private static final class Snapshot {
+        private final Path root;
+        private final long builtAt;
+        private final ByteBuffer buf;
+        private final int pathCount, trigramCount, offsetsPos, kindsPos, blobPos, trigramsPos, postingsPos;
+
+        Snapshot(final ByteBuffer buf) throws IOException {
+            this.buf = buf;
+            if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION)
+                throw new IOException("Bad index file " + INDEX_FILE);
+            builtAt = buf.getLong(8);
+            final int rootLength = buf.getInt(16);
+            final byte[] rootBytes = new byte[rootLength];
+            buf.get(20, rootBytes);
+            root = Paths.get(new String(rootBytes, StandardCharsets.UTF_8));
+            pathCount = buf.getInt(20 + rootLength);
+            trigramCount = buf.getInt(24 + rootLength);
+            offsetsPos = 28 + rootLength;
+            kindsPos = offsetsPos + 4 * (pathCount + 1);
+            blobPos = kindsPos + pathCount;
+            trigramsPos = blobPos + buf.getInt(offsetsPos + 4 * pathCount);
+            postingsPos = trigramsPos + 16 * trigramCount;
+        }
+
+        String path(final int id) {
+            final int start = buf.getInt(offsetsPos + 4 * id), end = buf.getInt(offsetsPos + 4 * (id + 1));
+            final byte[] bytes = new byte[end - start];
+            buf.get(blobPos + start, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        DirEntry.Kind kind(final int id) {
+            return DirEntry.Kind.values()[buf.get(kindsPos + id)];
+        }
+
+        int[] postings(final long trigram) { // binary search over the sorted trigram table
+            int low = 0, high = trigramCount - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final long key = buf.getLong(trigramsPos + 16 * mid);
+                if (key < trigram)
+                    low = mid + 1;
+                else if (key > trigram)
+                    high = mid - 1;
+                else {
+                    final int[] ids = new int[buf.getInt(trigramsPos + 16 * mid + 12)];
+                    final int start = buf.getInt(trigramsPos + 16 * mid + 8);
+                    for (int i = 0; i < ids.length; i++)
+                        ids[i] = buf.getInt(postingsPos + 4 * (start + i));
+                    return ids;
+                }
+            }
+            return new int[0];
+        }
+    }
+
+    private static volatile Snapshot snapshot;
+    private static volatile boolean loadAttempted, building, fullyWatched, overflowed;
+    private static final ConcurrentHashMap<String, DirEntry.Kind> added = new ConcurrentHashMap<>(); // relative paths created since the snapshot
+    private static final Set<String> removed = ConcurrentHashMap.newKeySet(); // relative paths whose snapshot subtree is gone
+    private static final AtomicInteger pendingCrawls = new AtomicInteger();
+    private static final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<>();
+    private static final ExecutorService background = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "filename-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static WatchService watchService;
+
+    private FilenameIndex() {
+    }
+
+    static boolean buildInBackground(final Path root) {
+        synchronized (FilenameIndex.class) {
+            if (building)
+                return false;
+            building = true;
+        }
+        background.execute(() -> {
+            try {
+                build(root.toAbsolutePath().normalize());
+            } catch (final IOException | RuntimeException e) {
+                if (Entity.DEBUG)
+                    e.printStackTrace();
+            } finally {
+                building = false;
+            }
+        });
+        return true;
+    }
+
+    static String status() {
+        ensureLoaded();
+        final Snapshot current = snapshot;
+        if (building)
+            return "Indexing in progress";
+        if (current == null)
+            return "No index, run index to build one";
+        return "Index of " + current.root + ": " + current.pathCount + " paths, " + added.size() + " added and " + removed.size() + " removed since "
+                + new java.util.Date(current.builtAt) + (isFresh(current.root) ? "" : " (stale, find falls back to a live scan)");
+    }
+
+    // -1 when the index cannot answer for queryRoot, the caller then walks the tree itself
+    static int query(final Path queryRoot, final Pattern pattern, final ListOption opt, final DirEntry.Kind kind, final int maxDepth, final int limit, final Consumer<String> onMatch) {
+        ensureLoaded();
+        final Snapshot current = snapshot;
+        if (current == null || !isFresh(queryRoot))
+            return -1;
+        final String prefix = current.root.relativize(queryRoot).toString();
+        int hits = 0;
+        for (final int id : candidates(current, pattern)) {
+            final String path = current.path(id);
+            if (added.containsKey(path) || isRemoved(path))
+                continue;
+            if (matches(prefix, path, current.kind(id), pattern, opt, kind, maxDepth)) {
+                onMatch.accept(relativeTo(prefix, path));
+                if (++hits >= limit)
+                    return hits;
+            }
+        }
+        final List<String> sortedAdded = new ArrayList<>(added.keySet());
+        Collections.sort(sortedAdded);
+        for (final String path : sortedAdded)
+            if (matches(prefix, path, added.get(path), pattern, opt, kind, maxDepth)) {
+                onMatch.accept(relativeTo(prefix, path));
+                if (++hits >= limit)
+                    return hits;
+            }
+        return hits;
+    }
+
+    static void refresh(final String... pathsAndNames) { // called after our own mutations, re-stats each path
+        ensureLoaded();
+        final Snapshot current = snapshot;
+        if (current == null)
+            return;
+        for (final String pathAndName : pathsAndNames) {
+            final Path path = Paths.get(pathAndName).toAbsolutePath().normalize();
+            if (path.startsWith(current.root) && !path.equals(current.root))
+                refresh(current, path);
+        }
+    }
+
+    private static void refresh(final Snapshot current, final Path path) {
+        final String relative = current.root.relativize(path).toString();
+        final BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (final IOException e) { // gone
+            removed.add(relative);
+            added.keySet().removeIf(candidate -> candidate.equals(relative) || candidate.startsWith(relative + '/'));
+            return;
+        }
+        removed.add(relative); // anything the snapshot had under this path is superseded
+        added.put(relative, ParallelTreeWalker.kindOf(attrs));
+        if (attrs.isDirectory()) {
+            pendingCrawls.incrementAndGet(); // index is stale until the new subtree is in the overlay
+            background.execute(() -> {
+                try {
+                    ParallelTreeWalker.walk(path, Integer.MAX_VALUE, ListOption.SHOW_HIDDEN, new AtomicBoolean(), (child, childAttrs, depth) -> {
+                        added.put(current.root.relativize(child).toString(), ParallelTreeWalker.kindOf(childAttrs));
+                        if (childAttrs.isDirectory())
+                            watch(child);
+                    });
+                    watch(path);
+                } finally {
+                    pendingCrawls.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    private static boolean isFresh(final Path queryRoot) {
+        final Snapshot current = snapshot;
+        return current != null && !building && !overflowed && pendingCrawls.get() == 0 && queryRoot.startsWith(current.root)
+                && (fullyWatched || System.currentTimeMillis() - current.builtAt < MAX_AGE_MILLIS);
+    }
+
+    private static boolean isRemoved(final String path) {
+        if (removed.isEmpty())
+            return false;
+        for (int slash = path.length(); slash > 0; slash = path.lastIndexOf('/', slash - 1))
+            if (removed.contains(path.substring(0, slash)))
+                return true;
+        return false;
+    }
+
+    private static boolean matches(final String prefix, final String path, final DirEntry.Kind entryKind, final Pattern pattern, final ListOption opt, final DirEntry.Kind kind, final int maxDepth) {
+        if (!prefix.isEmpty() && !path.startsWith(prefix + '/'))
+            return false;
+        if (kind != null && entryKind != kind)
+            return false;
+        final String relative = relativeTo(prefix, path);
+        int depth = 1;
+        for (final String component : relative.split("/")) {
+            if (opt != ListOption.SHOW_HIDDEN && component.startsWith("."))
+                return false;
+            depth++;
+        }
+        return depth - 1 <= maxDepth && pattern.matcher(relative.substring(relative.lastIndexOf('/') + 1)).matches();
+    }
+
+    private static String relativeTo(final String prefix, final String path) {
+        return prefix.isEmpty() ? path : path.substring(prefix.length() + 1);
+    }
+
+    private static int[] candidates(final Snapshot current, final Pattern pattern) {
+        int[] result = null;
+        for (final String literal : requiredLiterals(pattern))
+            for (int i = 0; i + 3 <= literal.length(); i++) {
+                final int[] ids = current.postings(trigram(literal, i));
+                result = result == null ? ids : intersect(result, ids);
+                if (result.length == 0)
+                    return result;
+            }
+        if (result != null)
+            return result;
+        final int[] all = new int[current.pathCount]; // nothing to narrow on, check every name
+        for (int i = 0; i < all.length; i++)
+            all[i] = i;
+        return all;
+    }
+
+    private static int[] intersect(final int[] a, final int[] b) {
+        final int[] out = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length)
+            if (a[i] < b[j])
+                i++;
+            else if (a[i] > b[j])
+                j++;
+            else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static final Pattern INLINE_FLAGS = Pattern.compile("\\(\\?[a-zA-Z-]*[ixu]"); // (?i), (?x:...) and the like, they change how literals match
+
+    static boolean isCaseSensitive(final Pattern pattern) { // flags passed to compile and inline ones alike
+        return (pattern.flags() & (Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE | Pattern.COMMENTS)) == 0 && !INLINE_FLAGS.matcher(pattern.pattern()).find();
+    }
+
+    private static final String MULTI_CHAR_ESCAPES = "uxc0pPQNk123456789"; // escapes that go on past their letter
+
+    static List<String> requiredLiterals(final Pattern pattern) { // literal runs every match must contain, empty if unsure
+        final List<String> literals = new ArrayList<>();
+        final String regex = pattern.pattern();
+        if (!isCaseSensitive(pattern) || (pattern.flags() & Pattern.LITERAL) != 0 || regex.contains("|"))
+            return literals;
+        StringBuilder run = new StringBuilder();
+        for (int i = 0; i < regex.length(); i++) {
+            final char ch = regex.charAt(i);
+            switch (ch) {
+                case '\\' -> {
+                    if (i + 1 < regex.length() && !Character.isLetterOrDigit(regex.charAt(i + 1)))
+                        run.append(regex.charAt(++i));
+                    else if (i + 1 < regex.length() && MULTI_CHAR_ESCAPES.indexOf(regex.charAt(i + 1)) >= 0) {
+                        literals.clear(); // \x41, \0101, \p{L}, \Q...\E, a unicode escape or a backreference, what follows the letter is no literal
+                        return literals;
+                    } else {
+                        i++; // \d, \w, \b and friends
+                        run = flush(literals, run);
+                    }
+                }
+                case '*', '?' -> {
+                    if (run.length() > 0)
+                        run.setLength(run.length() - 1); // the preceding char is optional
+                    run = flush(literals, run);
+                }
+                case '{' -> {
+                    if (run.length() > 0)
+                        run.setLength(run.length() - 1);
+                    run = flush(literals, run);
+                    i = Math.max(i, regex.indexOf('}', i));
+                }
+                case '[', '(' -> {
+                    run = flush(literals, run);
+                    final char close = ch == '[' ? ']' : ')';
+                    int depth = 0;
+                    for (; i < regex.length(); i++) { // skip the whole class or group, it may be optional
+                        if (regex.charAt(i) == '\\')
+                            i++;
+                        else if (regex.charAt(i) == ch)
+                            depth++;
+                        else if (regex.charAt(i) == close && --depth == 0)
+                            break;
+                    }
+                    if (i + 1 < regex.length() && regex.charAt(i + 1) == '{')
+                        i = Math.max(i, regex.indexOf('}', i));
+                    else if (i + 1 < regex.length() && "*?+".indexOf(regex.charAt(i + 1)) >= 0)
+                        i++;
+                }
+                case '.', '^', '$', '+', ')', ']', '}' -> run = flush(literals, run);
+                default -> run.append(ch);
+            }
+        }
+        flush(literals, run);
+        return literals;
+    }
+
+    private static StringBuilder flush(final List<String> literals, final StringBuilder run) {
+        if (run.length() >= 3)
+            literals.add(run.toString());
+        return new StringBuilder();
+    }
+
+    private static long trigram(final CharSequence text, final int at) {
+        return ((long) text.charAt(at) << 32) | ((long) text.charAt(at + 1) << 16) | text.charAt(at + 2);
+    }
+
+    private static void build(final Path root) throws IOException {
+        if (Entity.DEBUG)
+            System.out.println("INDEXING " + root);
+        final long startedAt = System.currentTimeMillis();
+        overflowed = false;
+        added.clear();
+        removed.clear();
+        final ConcurrentLinkedQueue<String[]> crawled = new ConcurrentLinkedQueue<>();
+        ParallelTreeWalker.walk(root, Integer.MAX_VALUE, ListOption.SHOW_HIDDEN, new AtomicBoolean(), (path, attrs, depth) -> crawled.add(new String[] { root.relativize(path).toString(), ParallelTreeWalker.kindOf(attrs).name() }));
+        final String[][] entries = crawled.toArray(new String[0][]);
+        Arrays.sort(entries, (a, b) -> a[0].compareTo(b[0]));
+        final Map<Long, IntList> postings = new HashMap<>();
+        for (int id = 0; id < entries.length; id++) {
+            final String path = entries[id][0];
+            final String fileName = path.substring(path.lastIndexOf('/') + 1);
+            for (int i = 0; i + 3 <= fileName.length(); i++)
+                postings.computeIfAbsent(trigram(fileName, i), key -> new IntList()).add(id);
+        }
+        write(root, startedAt, entries, postings);
+        final Snapshot previous = snapshot;
+        try (final FileChannel channel = FileChannel.open(INDEX_FILE, StandardOpenOption.READ)) {
+            snapshot = new Snapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        if (previous == null || !previous.root.equals(root)) { // overlay written during the crawl was relative to the old root
+            added.clear();
+            removed.clear();
+        }
+        if (Entity.DEBUG)
+            System.out.println("INDEXED " + entries.length + " PATHS UNDER " + root);
+        watchAll(snapshot);
+    }
+
+    private static void write(final Path root, final long builtAt, final String[][] entries, final Map<Long, IntList> postings) throws IOException {
+        final Path temp = INDEX_FILE.resolveSibling(INDEX_FILE.getFileName() + ".tmp");
+        final byte[] rootBytes = root.toString().getBytes(StandardCharsets.UTF_8);
+        final byte[][] paths = new byte[entries.length][];
+        for (int i = 0; i < entries.length; i++)
+            paths[i] = entries[i][0].getBytes(StandardCharsets.UTF_8);
+        final Long[] trigrams = postings.keySet().toArray(new Long[0]);
+        Arrays.sort(trigrams);
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(builtAt);
+            out.writeInt(rootBytes.length);
+            out.write(rootBytes);
+            out.writeInt(entries.length);
+            out.writeInt(trigrams.length);
+            int offset = 0;
+            for (final byte[] path : paths) {
+                out.writeInt(offset);
+                offset += path.length;
+            }
+            out.writeInt(offset);
+            for (final String[] entry : entries)
+                out.writeByte(DirEntry.Kind.valueOf(entry[1]).ordinal());
+            for (final byte[] path : paths)
+                out.write(path);
+            int postingStart = 0;
+            for (final Long trigram : trigrams) {
+                out.writeLong(trigram);
+                out.writeInt(postingStart);
+                out.writeInt(postings.get(trigram).size);
+                postingStart += postings.get(trigram).size;
+            }
+            for (final Long trigram : trigrams) {
+                final IntList ids = postings.get(trigram);
+                for (int i = 0; i < ids.size; i++)
+                    out.writeInt(ids.values[i]);
+            }
+        }
+        Files.move(temp, INDEX_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static synchronized void ensureLoaded() {
+        if (loadAttempted)
+            return;
+        loadAttempted = true;
+        if (!Files.exists(INDEX_FILE))
+            return;
+        try (final FileChannel channel = FileChannel.open(INDEX_FILE, StandardOpenOption.READ)) {
+            snapshot = new Snapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            final Snapshot loaded = snapshot;
+            background.execute(() -> watchAll(loaded));
+        } catch (final IOException e) {
+            if (Entity.DEBUG)
+                e.printStackTrace();
+        }
+    }
+
+    private static void watchAll(final Snapshot current) {
+        watchedDirs.keySet().forEach(WatchKey::cancel);
+        watchedDirs.clear();
+        boolean complete = watch(current.root);
+        for (int id = 0; id < current.pathCount && complete; id++)
+            if (current.kind(id) == DirEntry.Kind.DIRECTORY)
+                complete = watch(current.root.resolve(current.path(id)));
+        fullyWatched = complete;
+        if (Entity.DEBUG)
+            System.out.println("INDEX WATCHING " + watchedDirs.size() + " DIRECTORIES" + (complete ? "" : ", COVERAGE INCOMPLETE"));
+    }
+
+    private static boolean watch(final Path dir) {
+        if (watchedDirs.size() >= MAX_WATCHES) {
+            fullyWatched = false;
+            return false;
+        }
+        try {
+            watchedDirs.put(dir.register(watchService(), StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE), dir);
+            return true;
+        } catch (final IOException | UnsupportedOperationException e) {
+            fullyWatched = false;
+            return false;
+        }
+    }
+
+    private static synchronized WatchService watchService() throws IOException {
+        if (watchService == null) {
+            watchService = FileSystems.getDefault().newWatchService();
+            final Thread watcher = new Thread(FilenameIndex::processEvents, "filename-index-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+        return watchService;
+    }
+
+    private static void processEvents() {
+        try {
+            while (true) {
+                final WatchKey key = watchService.take();
+                final Path dir = watchedDirs.get(key);
+                final Snapshot current = snapshot;
+                for (final WatchEvent<?> event : key.pollEvents())
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+                        overflowed = true; // events were lost, only a rebuild makes the index trustworthy again
+                    else if (dir != null && current != null && event.context() instanceof Path)
+                        refresh(current, dir.resolve((Path) event.context()));
+                if (!key.reset())
+                    watchedDirs.remove(key);
+            }
+        } catch (final InterruptedException | ClosedWatchServiceException e) {
+            if (Entity.DEBUG)
+                System.out.println("FILENAME INDEX WATCHER STOPPED");
+        }
+    }
+
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        void add(final int value) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+    }
+}
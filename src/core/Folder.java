@@ -1,20 +1,52 @@
 package core;
 
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.Future;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 interface Folder extends Entity {
     ErrorCode createNewFile(final String destination, final String... newFileName);
 
     public ErrorCode createNewFile(final String... newFileNames);
 
-    Future<ErrorCode> copy(final String srcPath, final String srcName, final String destPath, final String destName);
+    CompletableFuture<ErrorCode> copy(final String srcPath, final String srcName, final String destPath, final String destName);
 
-    Future<ErrorCode> copy(final String destination, final String... names);
+    CompletableFuture<ErrorCode> copy(final String srcPath, final String srcName, final String destPath, final String destName, final Set<CopyOption> options);
 
-    Future<ErrorCode> move(final String srcPath, final String srcName, final String destPath, final String destName);
+    CompletableFuture<BatchResult> copyAsync(final String destination, final String... names);
 
-    Future<ErrorCode> move(final String destination, final String... names);
+    CompletableFuture<BatchResult> copyAsync(final String destination, final Set<CopyOption> options, final String... names);
+
+    CompletableFuture<ErrorCode> copy(final String destination, final String... names);
+
+    CompletableFuture<ErrorCode> sync(final String srcPath, final String srcName, final String destPath, final String destName);
+
+    CompletableFuture<BatchResult> syncAsync(final String destination, final String... names);
+
+    CompletableFuture<ErrorCode> move(final String srcPath, final String srcName, final String destPath, final String destName);
+
+    CompletableFuture<BatchResult> moveAsync(final String destination, final String... names);
+
+    CompletableFuture<ErrorCode> move(final String destination, final String... names);
+
+    CompletableFuture<ErrorCode> deleteRecursive(final String srcPath, final String srcName);
+
+    CompletableFuture<BatchResult> deleteRecursiveAsync(final String... names);
+
+    CompletableFuture<ErrorCode> pack(final String srcPath, final String srcName, final String destPath, final String archiveName);
+
+    CompletableFuture<ErrorCode> pack(final String name, final String archiveName);
+
+    CompletableFuture<ErrorCode> unpack(final String archivePath, final String archiveName, final String destination);
+
+    CompletableFuture<ErrorCode> unpack(final String archiveName, final String destination);
+
+    CompletableFuture<BatchResult> resume();
+
+    int getUnfinishedJobCount();
 
     ErrorCode rename(final String oldName, final String newName);
 
@@ -26,10 +58,28 @@ interface Folder extends Entity {
 
     CopyOnWriteArrayList<String> listFolders();
 
+    DirectoryCursor listCursor(final ListOption opt, final Comparator<DirEntry> order, final int limit, final int pageSize);
+
+    DirectoryCursor listCursor(final ListOption opt);
+
     CopyOnWriteArrayList<String> regexFilter(final String patternString, final ListOption opt);
 
     CopyOnWriteArrayList<String> regexFilter(final String patternString);
 
+    int find(final String patternString, final ListOption opt, final DirEntry.Kind kind, final int maxDepth, final int maxResults, final Consumer<String> onMatch);
+
+    int grep(final String patternString, final ListOption opt, final int maxResults, final Consumer<String> onMatch);
+
+    DiskUsage du(final ListOption opt);
+
+    DiskUsage du();
+
+    List<DuplicateGroup> dupes(final ListOption opt);
+
+    List<DuplicateGroup> dupes();
+
+    ErrorCode verify(final Consumer<String> onResult);
+
     ErrorCode stepIn(final String target);
 
     ErrorCode stepOut();
@@ -1,27 +1,32 @@
 package core;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.nio.file.DirectoryIteratorException;
-import java.nio.file.DirectoryStream;
-import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.concurrent.ExecutorService;
 import java.util.regex.Pattern;
 
@@ -39,9 +44,13 @@ public final class FolderImpl implements Folder {
     }
 
     private static final String homeDir = System.getProperty("user.home");
+    private static final boolean VERIFY_CHECKSUMS = Boolean.getBoolean("explorer.move.verifyChecksums"); // cross-device moves copy with CopyOption.VERIFY
     private static final FolderImpl singletonObj = new FolderImpl(Parser.getPath(homeDir), Parser.getName(homeDir));
-    private final ExecutorService executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-    private final ConcurrentHashMap<String, Future<ErrorCode>> futureWorkStats = new ConcurrentHashMap<>();
+    private final ExecutionMode executionMode = ExecutionMode.fromProperty();
+    private final ExecutorService executorService = executionMode.newExecutor();
+    private final JobRegistry jobs = new JobRegistry();
+    private final IoScheduler scheduler = new IoScheduler(executionMode);
+    private final JobJournal journal = new JobJournal();
 
     public static FolderImpl getInstance() {
         return singletonObj;
@@ -70,43 +79,43 @@ public final class FolderImpl implements Folder {
         return name;
     }
 
-    public void getIoStat() {
-        if (futureWorkStats.isEmpty()) {
+    public boolean getIoStat() { // true while any job is still running, so callers can keep refreshing
+        if (jobs.all().isEmpty()) {
             System.out.println("spawn cp/mv operation to see log");
-            return;
+            return false;
         }
-        futureWorkStats.forEach((key, future) -> {
-            if (future.isDone())
-                try {
-                    ErrorCode errorCode = future.get();
-                    System.out.println("Completed Job: " + key.replace(",", " ") + " which returned: " + errorCode);
-                } catch (final InterruptedException | ExecutionException e) {
-                    System.out.println("Error occurred while getting future result: " + e.getMessage());
-                }
-            else
-                System.out.println("Running Job: " + key.split(","));
-        });
+        System.out.println("executor: " + executionMode.toString().toLowerCase() + ", " + executionMode.describe());
+        scheduler.render().forEach(System.out::println);
+        System.out.println(ChunkedFileCopier.arenaStatus());
+        boolean running = false;
+        for (final Job job : jobs.all()) {
+            System.out.println(job.render());
+            running |= !job.isFinished();
+        }
+        return running;
+    }
+
+    public ErrorCode cancel(final int jobId) { // the job stops at its next file or slice boundary and drops the file it was writing
+        final Job job = jobs.get(jobId);
+        return job != null && job.cancel() ? ErrorCode.SUCCESS : ErrorCode.ENTITY_NOT_FOUND;
+    }
+
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
     }
 
     public void setPath(final String path) {
-        CriticalSectionHandler.lock(this);
         this.path = path;
-        CriticalSectionHandler.unlock(this);
-
     }
 
     public void setName(final String name) {
-        CriticalSectionHandler.lock(this);
         this.name = name;
-        CriticalSectionHandler.unlock(this);
     }
 
     public boolean doesExist() {
         if (DEBUG)
             System.out.println("CHECKING IF " + path + name + " EXISTS: ");
-        CriticalSectionHandler.lock(this);
         final boolean result = Files.exists(Path.of(path, name)) && Files.isDirectory(Path.of(path, name));
-        CriticalSectionHandler.unlock(this);
         if (DEBUG)
             System.out.println((result ? "" : "NOT ") + "FOUND");
         return result;
@@ -140,25 +149,28 @@ public final class FolderImpl implements Folder {
                 if (ILLEGAL_CHARACTERS.contains(ch))
                     return ErrorCode.ILLEGAL_NAME;
         final String[] pathsAndNames = Arrays.stream(names).map(name -> this.getPath() + this.getName() + "/" + (destination.equals(".") ? "" : destination) + name).toArray(String[]::new);
-        if (CriticalSectionHandler.isLocked(pathsAndNames))
-            return ErrorCode.ENTITY_IS_LOCKED;
-        CriticalSectionHandler.lock(pathsAndNames);
-        for (final String newFolderName : pathsAndNames) {
-            if (DEBUG)
-                System.out.println("CREATING " + newFolderName);
-            try {
-                Files.createDirectories(Paths.get(newFolderName));
-            } catch (final UnsupportedOperationException e) {
-                return ErrorCode.OPERATION_NOT_SUPPORTED;
-            } catch (final java.nio.file.FileAlreadyExistsException e) {
-                return ErrorCode.FILE_ALREADY_EXISTS;
-            } catch (final IOException e) {
-                return ErrorCode.IO_ERROR;
-            } catch (final Exception e) {
-                return ErrorCode.UNKOWN_ERROR;
-            } finally {
-                CriticalSectionHandler.unlock(pathsAndNames);
+        try (final PathLockManager.Lease lease = PathLockManager.tryAcquireExclusive(pathsAndNames)) {
+            if (lease == null)
+                return ErrorCode.ENTITY_IS_LOCKED;
+            for (final String newFolderName : pathsAndNames) {
+                if (DEBUG)
+                    System.out.println("CREATING " + newFolderName);
+                try {
+                    Files.createDirectories(Paths.get(newFolderName));
+                } catch (final UnsupportedOperationException e) {
+                    return ErrorCode.OPERATION_NOT_SUPPORTED;
+                } catch (final java.nio.file.FileAlreadyExistsException e) {
+                    return ErrorCode.FILE_ALREADY_EXISTS;
+                } catch (final IOException e) {
+                    return ErrorCode.IO_ERROR;
+                } catch (final Exception e) {
+                    return ErrorCode.UNKOWN_ERROR;
+                }
             }
+        } finally {
+            DirectoryListingCache.invalidate(pathsAndNames);
+            SubtreeSizeCache.invalidate(pathsAndNames);
+            FilenameIndex.refresh(pathsAndNames);
         }
         return ErrorCode.SUCCESS;
     }
@@ -175,37 +187,215 @@ public final class FolderImpl implements Folder {
         return createNewFile(".", newFileNames);
     }
 
+    public void setChunkedCopy(final long thresholdBytes, final long chunkBytes) {
+        ChunkedFileCopier.setThreshold(thresholdBytes);
+        ChunkedFileCopier.setChunkSize(chunkBytes);
+    }
+
+    private String locate(final String dir, final String entryName) {
+        return this.getPath() + this.getName() + "/" + (dir.equals(".") ? "" : dir) + (dir.endsWith("/") ? "" : "/") + entryName;
+    }
+
+    private void copyRegularFile(final Path src, final Path dest, final Job job, final Set<CopyOption> options) throws IOException {
+        job.checkCancelled();
+        final BasicFileAttributes attrs = Files.readAttributes(src, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        if (attrs.isSymbolicLink() || attrs.isOther()) { // recreate links and special files themselves, following a link would copy its target in its place
+            Files.copy(src, dest, StandardCopyOption.REPLACE_EXISTING, LinkOption.NOFOLLOW_LINKS);
+            job.fileDone();
+            return;
+        }
+        final long size = attrs.size();
+        if (options.isEmpty() && copiedBeforeCrash(src, size, dest, job)) { // a checksummed copy redoes them, its bytes have to pass the hash
+            job.addBytes(size);
+            job.fileDone();
+            return;
+        }
+        final Path part = JobJournal.partFile(dest); // dest only ever appears whole, by rename
+        final FileChecksum checksum = options.isEmpty() ? null : new FileChecksum(size); // taken in the same pass as the copy
+        try {
+            if (ChunkedFileCopier.shouldUse(size))
+                ChunkedFileCopier.copy(src, part, executorService, job, checksum);
+            else if (size > ChunkedFileCopier.SLICE || checksum != null)
+                ChunkedFileCopier.copySliced(src, part, job, checksum);
+            else
+                ChunkedFileCopier.copySmall(src, part, job);
+            if (options.contains(CopyOption.VERIFY) && FileChecksum.of(part) != checksum.value())
+                throw new FileChecksum.MismatchException(dest); // only the read back costs extra I/O, the source is never read twice
+            JobJournal.publish(part, dest);
+        } catch (final IOException e) {
+            Files.deleteIfExists(part); // only a crash leaves a part file behind, for resume to continue
+            if (!job.cancelledFlag().get())
+                throw e;
+            throw new InterruptedIOException("Cancelled copying " + src);
+        }
+        if (options.contains(CopyOption.VERIFY))
+            job.fileVerified();
+        if (options.contains(CopyOption.MANIFEST))
+            CopyManifest.record(dest, checksum.value(), size);
+        job.fileDone();
+    }
+
+    // a resumed job skips files its crashed run already renamed into place
+    private static boolean copiedBeforeCrash(final Path src, final long size, final Path dest, final Job job) {
+        final JobJournal.Entry journal = job.journal();
+        if (journal == null || !journal.isResumed())
+            return false;
+        try {
+            final BasicFileAttributes attrs = Files.readAttributes(dest, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            return attrs.isRegularFile() && attrs.size() == size && attrs.lastModifiedTime().toMillis() >= journal.plannedMillis();
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+
+    // skips files whose size and mtime already match, rebuilds big changed files from their unchanged blocks, and stamps the source mtime on what it wrote
+    private void syncRegularFile(final Path src, final Path dest, final Job job) throws IOException {
+        job.checkCancelled();
+        final BasicFileAttributes srcAttrs = Files.readAttributes(src, BasicFileAttributes.class);
+        BasicFileAttributes destAttrs = null;
+        try {
+            destAttrs = Files.readAttributes(dest, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (final java.nio.file.NoSuchFileException e) {
+            // first sync of this file
+        }
+        final boolean existing = destAttrs != null && destAttrs.isRegularFile();
+        if (existing && destAttrs.size() == srcAttrs.size() && destAttrs.lastModifiedTime().toMillis() == srcAttrs.lastModifiedTime().toMillis()) {
+            job.addBytes(srcAttrs.size());
+            job.addSaved(srcAttrs.size());
+            job.fileDone();
+            return;
+        }
+        if (existing && DeltaSync.shouldUse(srcAttrs.size())) {
+            if (DEBUG)
+                System.out.println("DELTA SYNCING " + src);
+            if (DeltaSync.inPlace())
+                DeltaSync.update(src, dest, dest, job); // a cancel leaves a mixed file, but its mtime still differs so the next sync redoes it
+            else {
+                final Path part = JobJournal.partFile(dest); // built beside dest from its blocks, dest stays the old file until the rename
+                try {
+                    DeltaSync.update(src, dest, part, job);
+                    JobJournal.publish(part, dest);
+                } catch (final IOException e) {
+                    Files.deleteIfExists(part);
+                    if (!job.cancelledFlag().get())
+                        throw e;
+                    throw new InterruptedIOException("Cancelled syncing " + src);
+                }
+            }
+            job.fileDone();
+        } else
+            copyRegularFile(src, dest, job, EnumSet.noneOf(CopyOption.class));
+        Files.setLastModifiedTime(dest, srcAttrs.lastModifiedTime());
+    }
+
+    private CompletableFuture<ErrorCode> submitJob(final String verb, final String srcFileLocation, final String destFileLocation, final long estimatedBytes, final Function<Job, ErrorCode> work) {
+        final Path src = Paths.get(srcFileLocation).normalize(), dest = Paths.get(destFileLocation).normalize();
+        final Job job = jobs.register(verb + " " + src + (src.equals(dest) ? "" : " -> " + dest)); // rm -r has no target
+        return scheduler.submit(job, src, dest, estimatedBytes, () -> jobs.run(job, work));
+    }
+
+    // cp, mv and sync are journaled so that resume can finish them after a crash
+    private CompletableFuture<ErrorCode> submitJournaled(final String verb, final String srcFileLocation, final String destFileLocation, final JobJournal.Entry resumed) {
+        final JobJournal.Entry entry = resumed != null ? resumed : journal.plan(verb, srcFileLocation, destFileLocation);
+        final boolean move = verb.equals("mv");
+        final long estimatedBytes = move && IoScheduler.sameDevice(Paths.get(srcFileLocation), Paths.get(destFileLocation)) ? 0 : estimateBytes(srcFileLocation); // a rename moves no bytes
+        return submitJob(verb, srcFileLocation, destFileLocation, estimatedBytes, job -> {
+            job.attach(entry);
+            entry.started();
+            ErrorCode result = ErrorCode.UNKOWN_ERROR;
+            try {
+                if (move && resumed != null && !Files.exists(Paths.get(srcFileLocation), LinkOption.NOFOLLOW_LINKS) && Files.exists(Paths.get(destFileLocation), LinkOption.NOFOLLOW_LINKS))
+                    result = ErrorCode.SUCCESS; // the crash came after the rename or the source delete
+                else if (move)
+                    result = nonAsyncMove(srcFileLocation, destFileLocation, job);
+                else if (verb.equals("sync"))
+                    result = nonAsyncCopy(srcFileLocation, destFileLocation, job, (from, to) -> syncRegularFile(from, to, job));
+                else {
+                    final Set<CopyOption> options = copyOptions(verb);
+                    result = nonAsyncCopy(srcFileLocation, destFileLocation, job, (from, to) -> copyRegularFile(from, to, job, options));
+                }
+                return result;
+            } finally {
+                entry.done(result);
+            }
+        });
+    }
+
+    private static String copyVerb(final Set<CopyOption> options) { // the journal keeps the options as flags of the verb
+        return "cp" + (options.contains(CopyOption.VERIFY) ? " -v" : "") + (options.contains(CopyOption.MANIFEST) ? " -m" : "");
+    }
+
+    private static Set<CopyOption> copyOptions(final String verb) {
+        final Set<CopyOption> options = EnumSet.noneOf(CopyOption.class);
+        if (verb.contains(" -v"))
+            options.add(CopyOption.VERIFY);
+        if (verb.contains(" -m"))
+            options.add(CopyOption.MANIFEST);
+        return options;
+    }
+
+    public CompletableFuture<BatchResult> resume() { // reruns what the last run's journal left unfinished, empty if nothing was
+        final List<JobJournal.Entry> entries = journal.takeUnfinished();
+        final String[] names = new String[entries.size()];
+        final List<CompletableFuture<ErrorCode>> items = new ArrayList<>();
+        for (int i = 0; i < names.length; i++) {
+            final JobJournal.Entry entry = entries.get(i);
+            names[i] = entry.describe();
+            items.add(submitJournaled(entry.verb(), entry.source(), entry.target(), entry));
+        }
+        return allOf(names, items);
+    }
+
+    public int getUnfinishedJobCount() {
+        return journal.unfinishedCount();
+    }
+
+    private static long estimateBytes(final String location) { // one stat for files, cached du totals for trees, -1 if unknown
+        try {
+            final BasicFileAttributes attrs = Files.readAttributes(Paths.get(location), BasicFileAttributes.class);
+            return attrs.isDirectory() ? SubtreeSizeCache.cachedBytes(Paths.get(location)) : attrs.size();
+        } catch (final IOException e) {
+            return -1;
+        }
+    }
+
+    // completes once every item has, no pool thread ever waits on another task
+    private static CompletableFuture<BatchResult> allOf(final String[] names, final List<CompletableFuture<ErrorCode>> items) {
+        final List<CompletableFuture<ErrorCode>> settled = new ArrayList<>();
+        for (final CompletableFuture<ErrorCode> item : items)
+            settled.add(item.exceptionally(e -> ErrorCode.UNKOWN_ERROR));
+        return CompletableFuture.allOf(settled.toArray(CompletableFuture[]::new)).thenApply(done -> {
+            final Map<String, ErrorCode> results = new LinkedHashMap<>();
+            for (int i = 0; i < names.length; i++)
+                results.put(names[i], settled.get(i).join()); // already complete, join does not block
+            return new BatchResult(results);
+        });
+    }
+
     public ErrorCode nonAsyncCopy(final String srcPath, final String srcName, final String destPath, final String destName) {
-        final String srcFileLocation = this.getPath() + this.getName() + "/" + (srcPath.equals(".") ? "" : srcPath) + (srcPath.endsWith("/") ? "" : "/") + srcName;
-        final String destFileLocation = this.getPath() + this.getName() + "/" + (destPath.equals(".") ? "" : destPath) + (destPath.endsWith("/") ? "" : "/") + destName;
+        final Job job = new Job(0, "slowcp"); // untracked, iostat never sees it
+        return nonAsyncCopy(locate(srcPath, srcName), locate(destPath, destName), job, (src, dest) -> copyRegularFile(src, dest, job, EnumSet.noneOf(CopyOption.class)));
+    }
+
+    private ErrorCode nonAsyncCopy(final String srcFileLocation, final String destFileLocation, final Job job, final ParallelTreeCopier.FileCopier copier) {
         if (!Files.exists(Paths.get(srcFileLocation)))
             return ErrorCode.ENTITY_NOT_FOUND;
-        if (CriticalSectionHandler.isLocked(srcFileLocation, destFileLocation))
+        final PathLockManager.Lease lease = PathLockManager.tryAcquire(new String[] { srcFileLocation }, new String[] { destFileLocation });
+        if (lease == null)
             return ErrorCode.ENTITY_IS_LOCKED;
-        CriticalSectionHandler.lock(srcFileLocation, destFileLocation);
         if (DEBUG)
             System.out.println("COPYING " + srcFileLocation + " TO " + destFileLocation);
         try {
+            job.sizing();
             if (Files.isRegularFile(Paths.get(srcFileLocation))) {
-                Files.copy(Paths.get(srcFileLocation), Paths.get(destFileLocation), StandardCopyOption.REPLACE_EXISTING);
+                job.running(Files.size(Paths.get(srcFileLocation)), 1);
+                copier.copy(Paths.get(srcFileLocation), Paths.get(destFileLocation));
             } else {
-                final Path sourcePath = Paths.get(srcFileLocation);
-                final Path targetPath = Paths.get(destFileLocation);
-                Files.walkFileTree(sourcePath, new SimpleFileVisitor<Path>() {
-                    @Override
-                    public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) throws IOException {
-                        final Path targetDirPath = targetPath.resolve(sourcePath.relativize(dir));
-                        if (!Files.exists(targetDirPath))
-                            Files.createDirectories(targetDirPath);
-                        return FileVisitResult.CONTINUE;
-                    }
-
-                    @Override
-                    public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
-                        Files.copy(file, targetPath.resolve(sourcePath.relativize(file)), StandardCopyOption.REPLACE_EXISTING);
-                        return FileVisitResult.CONTINUE;
-                    }
-                });
+                job.running(-1, -1);
+                SubtreeSizeCache.sizeInBackground(Paths.get(srcFileLocation), job); // counted alongside the copy instead of before it
+                final ErrorCode treeResult = ParallelTreeCopier.copy(Paths.get(srcFileLocation), Paths.get(destFileLocation), copier, job.cancelledFlag());
+                if (treeResult != ErrorCode.SUCCESS)
+                    return treeResult;
             }
         } catch (final java.nio.file.NoSuchFileException e) {
             return ErrorCode.FILE_NOT_FOUND;
@@ -213,12 +403,21 @@ public final class FolderImpl implements Folder {
             return ErrorCode.OPERATION_NOT_SUPPORTED;
         } catch (final java.nio.file.FileAlreadyExistsException e) {
             return ErrorCode.FILE_ALREADY_EXISTS;
+        } catch (final InterruptedIOException e) {
+            return ErrorCode.CANCELLED;
+        } catch (final FileChecksum.MismatchException e) {
+            return ErrorCode.VERIFY_FAILED;
         } catch (final IOException e) {
-            e.printStackTrace();
+            if (DEBUG)
+                e.printStackTrace();
+            return ErrorCode.IO_ERROR;
         } catch (final Exception e) {
             return ErrorCode.UNKOWN_ERROR;
         } finally {
-            CriticalSectionHandler.unlock(srcFileLocation, destFileLocation);
+            DirectoryListingCache.invalidate(destFileLocation);
+            SubtreeSizeCache.invalidate(destFileLocation);
+            FilenameIndex.refresh(destFileLocation);
+            lease.close();
         }
         return ErrorCode.SUCCESS;
     }
@@ -232,60 +431,227 @@ public final class FolderImpl implements Folder {
         return ErrorCode.SUCCESS;
     }
 
-    public Future<ErrorCode> copy(final String srcPath, final String srcName, final String destPath, final String destName) {
-        final Callable<ErrorCode> copyTask = () -> nonAsyncCopy(srcPath, srcName, destPath, destName);
-        Future<ErrorCode> futureResult = executorService.submit(copyTask);
-        futureWorkStats.put("cp " + srcPath + srcName + " " + destPath + destName, futureResult);
-        return futureResult;
+    public CompletableFuture<ErrorCode> copy(final String srcPath, final String srcName, final String destPath, final String destName, final Set<CopyOption> options) {
+        final String srcFileLocation = locate(srcPath, srcName), destFileLocation = locate(destPath, destName); // resolved now, a later cd must not retarget a queued job
+        return submitJournaled(copyVerb(options), srcFileLocation, destFileLocation, null);
     }
 
-    public Future<ErrorCode> copy(final String destination, final String... names) {
-        final List<Future<ErrorCode>> futures = new ArrayList<>();
-        for (final String name : names) {
-            final Future<ErrorCode> futureResult = executorService.submit(() -> nonAsyncCopy(".", name, destination, name));
-            futureWorkStats.put("cp " + getPath() + getName() + name + " " + destination + name, futureResult);
-            futures.add(futureResult);
+    public CompletableFuture<ErrorCode> copy(final String srcPath, final String srcName, final String destPath, final String destName) {
+        return copy(srcPath, srcName, destPath, destName, EnumSet.noneOf(CopyOption.class));
+    }
+
+    // small regular files are grouped into units that run as one job each, folders and big files still get a job of their own
+    public CompletableFuture<BatchResult> copyAsync(final String destination, final Set<CopyOption> options, final String... names) {
+        final List<CompletableFuture<ErrorCode>> items = new ArrayList<>(Collections.nCopies(names.length, null));
+        final long[] sizes = new long[names.length];
+        final CopyBatcher<Integer> batcher = new CopyBatcher<>(unit -> {
+            if (unit.size() == 1)
+                items.set(unit.get(0), copy(".", names[unit.get(0)], destination, names[unit.get(0)], options));
+            else {
+                final List<CompletableFuture<ErrorCode>> results = copyUnit(unit, names, sizes, destination, options);
+                for (int i = 0; i < unit.size(); i++)
+                    items.set(unit.get(i), results.get(i));
+            }
+        });
+        for (int i = 0; i < names.length; i++) {
+            sizes[i] = regularFileSize(locate(".", names[i]));
+            if (sizes[i] < 0)
+                items.set(i, copy(".", names[i], destination, names[i], options));
+            else
+                batcher.add(i, sizes[i]);
+        }
+        batcher.flush();
+        return allOf(names, items);
+    }
+
+    private static long regularFileSize(final String location) { // -1 for folders, links, special files and anything missing
+        try {
+            final BasicFileAttributes attrs = Files.readAttributes(Paths.get(location), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            return attrs.isRegularFile() ? attrs.size() : -1;
+        } catch (final IOException e) {
+            return -1;
+        }
+    }
+
+    private List<CompletableFuture<ErrorCode>> copyUnit(final List<Integer> unit, final String[] names, final long[] sizes, final String destination, final Set<CopyOption> options) {
+        final String verb = copyVerb(options);
+        final String[] sources = new String[unit.size()], targets = new String[unit.size()];
+        final JobJournal.Entry[] entries = new JobJournal.Entry[unit.size()];
+        final List<CompletableFuture<ErrorCode>> results = new ArrayList<>();
+        long bytes = 0;
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = locate(".", names[unit.get(i)]);
+            targets[i] = locate(destination, names[unit.get(i)]);
+            entries[i] = journal.plan(verb, sources[i], targets[i]); // resume redoes them one by one, like any cp
+            results.add(new CompletableFuture<>());
+            bytes += sizes[unit.get(i)];
         }
+        final long unitBytes = bytes;
+        submitJob(verb + " " + sources.length + " files from", locate(".", ""), locate(destination, ""), unitBytes, job -> nonAsyncCopyUnit(sources, targets, entries, results, unitBytes, job, options))
+                .whenComplete((result, e) -> results.forEach(item -> item.complete(result != null ? result : ErrorCode.UNKOWN_ERROR))); // files the job never reached
+        return results;
+    }
 
-        return executorService.submit(() -> {
-            for (final Future<ErrorCode> future : futures)
+    // one job and one round of cache invalidation for the whole unit, each file still journaled, locked and reported on its own
+    private ErrorCode nonAsyncCopyUnit(final String[] sources, final String[] targets, final JobJournal.Entry[] entries, final List<CompletableFuture<ErrorCode>> results, final long bytes, final Job job, final Set<CopyOption> options) {
+        job.sizing();
+        job.running(bytes, sources.length);
+        ErrorCode unitResult = ErrorCode.SUCCESS;
+        try {
+            for (int i = 0; i < sources.length; i++) {
+                job.attach(entries[i]);
+                entries[i].started();
+                ErrorCode result = ErrorCode.UNKOWN_ERROR;
                 try {
-                    ErrorCode errorCode = future.get();
-                    if (errorCode != ErrorCode.SUCCESS)
-                        return errorCode;
-                } catch (final InterruptedException | ExecutionException e) {
-                    return ErrorCode.UNKOWN_ERROR;
+                    result = job.cancelledFlag().get() ? ErrorCode.CANCELLED : copyUnitFile(sources[i], targets[i], job, options);
+                } finally {
+                    entries[i].done(result);
+                    results.get(i).complete(result);
                 }
+                if (unitResult == ErrorCode.SUCCESS)
+                    unitResult = result;
+            }
+        } finally {
+            DirectoryListingCache.invalidate(targets);
+            SubtreeSizeCache.invalidate(targets);
+            FilenameIndex.refresh(targets);
+        }
+        return unitResult;
+    }
+
+    private ErrorCode copyUnitFile(final String srcFileLocation, final String destFileLocation, final Job job, final Set<CopyOption> options) {
+        final PathLockManager.Lease lease = PathLockManager.tryAcquire(new String[] { srcFileLocation }, new String[] { destFileLocation });
+        if (lease == null)
+            return ErrorCode.ENTITY_IS_LOCKED;
+        try {
+            copyRegularFile(Paths.get(srcFileLocation), Paths.get(destFileLocation), job, options);
             return ErrorCode.SUCCESS;
-        });
+        } catch (final Exception e) {
+            if (DEBUG)
+                e.printStackTrace();
+            return ParallelTreeCopier.toErrorCode(e);
+        } finally {
+            lease.close();
+        }
+    }
+
+    public CompletableFuture<BatchResult> copyAsync(final String destination, final String... names) {
+        return copyAsync(destination, EnumSet.noneOf(CopyOption.class), names);
+    }
+
+    public CompletableFuture<ErrorCode> copy(final String destination, final String... names) {
+        return copyAsync(destination, names).thenApply(BatchResult::firstError);
+    }
+
+    public CompletableFuture<ErrorCode> sync(final String srcPath, final String srcName, final String destPath, final String destName) {
+        final String srcFileLocation = locate(srcPath, srcName), destFileLocation = locate(destPath, destName);
+        return submitJournaled("sync", srcFileLocation, destFileLocation, null);
+    }
+
+    public CompletableFuture<BatchResult> syncAsync(final String destination, final String... names) {
+        final List<CompletableFuture<ErrorCode>> items = new ArrayList<>();
+        for (final String name : names)
+            items.add(sync(".", name, destination, name));
+        return allOf(names, items);
     }
 
     private ErrorCode nonAsyncMove(final String srcPath, final String srcName, final String destPath, final String destName) {
-        final String srcFileLocation = this.getPath() + this.getName() + "/" + (srcPath.equals(".") ? "" : srcPath) + (srcPath.endsWith("/") ? "" : "/") + srcName;
-        final String destFileLocation = this.getPath() + this.getName() + "/" + (destPath.equals(".") ? "" : destPath) + (destPath.endsWith("/") ? "" : "/") + destName;
+        return nonAsyncMove(locate(srcPath, srcName), locate(destPath, destName), new Job(0, "mv"));
+    }
+
+    private ErrorCode nonAsyncMove(final String srcFileLocation, final String destFileLocation, final Job job) {
         if (!Files.exists(Paths.get(srcFileLocation)))
             return ErrorCode.ENTITY_NOT_FOUND;
-        if (CriticalSectionHandler.isLocked(srcFileLocation, destFileLocation))
+        final PathLockManager.Lease lease = PathLockManager.tryAcquireExclusive(srcFileLocation, destFileLocation);
+        if (lease == null)
             return ErrorCode.ENTITY_IS_LOCKED;
-        CriticalSectionHandler.lock(srcFileLocation, destFileLocation);
         if (DEBUG)
             System.out.println("MOVING " + srcFileLocation + " TO " + destFileLocation);
         try {
+            if (!IoScheduler.sameDevice(Path.of(srcFileLocation), Path.of(destFileLocation)))
+                return crossDeviceMove(Path.of(srcFileLocation), Path.of(destFileLocation), job);
+            job.running(-1, 1); // a rename moves no bytes worth reporting
             Files.move(Path.of(srcFileLocation), Path.of(destFileLocation), StandardCopyOption.REPLACE_EXISTING);
+            job.fileDone();
         } catch (final java.nio.file.NoSuchFileException e) {
             return ErrorCode.FILE_NOT_FOUND;
         } catch (final UnsupportedOperationException e) {
             return ErrorCode.OPERATION_NOT_SUPPORTED;
+        } catch (final InterruptedIOException e) {
+            return ErrorCode.CANCELLED;
         } catch (final IOException e) {
             return ErrorCode.IO_ERROR;
         } catch (final Exception e) {
             return ErrorCode.UNKOWN_ERROR;
         } finally {
-            CriticalSectionHandler.unlock(srcFileLocation, destFileLocation);
+            DirectoryListingCache.invalidate(srcFileLocation, destFileLocation);
+            SubtreeSizeCache.invalidate(srcFileLocation, destFileLocation);
+            FilenameIndex.refresh(srcFileLocation, destFileLocation);
+            lease.close();
         }
         return ErrorCode.SUCCESS;
     }
 
+    // a rename cannot leave its store: copy with the tree engine, check the copy, and only then delete the source
+    private ErrorCode crossDeviceMove(final Path src, final Path dest, final Job job) throws IOException {
+        if (DEBUG)
+            System.out.println("MOVING ACROSS DEVICES " + src + " TO " + dest);
+        final boolean destExisted = Files.exists(dest, LinkOption.NOFOLLOW_LINKS);
+        final Set<CopyOption> options = VERIFY_CHECKSUMS ? EnumSet.of(CopyOption.VERIFY) : EnumSet.noneOf(CopyOption.class); // checksums are compared file by file as they are copied
+        ErrorCode result = ErrorCode.SUCCESS;
+        job.sizing();
+        if (Files.isDirectory(src, LinkOption.NOFOLLOW_LINKS)) {
+            job.running(-1, -1);
+            SubtreeSizeCache.sizeInBackground(src, job);
+            result = ParallelTreeCopier.copy(src, dest, (from, to) -> copyRegularFile(from, to, job, options), job.cancelledFlag());
+        } else {
+            job.running(Files.size(src), 1);
+            try {
+                copyRegularFile(src, dest, job, options);
+            } catch (final IOException e) {
+                result = ParallelTreeCopier.toErrorCode(e);
+            }
+        }
+        if (result == ErrorCode.SUCCESS)
+            result = verifyCopy(src, dest, job);
+        if (result != ErrorCode.SUCCESS) {
+            if (!destExisted)
+                ParallelTreeDeleter.delete(dest, new AtomicBoolean(), attrs -> {}); // drop our partial copy, the source was never touched
+            return result;
+        }
+        return ParallelTreeDeleter.delete(src, new AtomicBoolean(), attrs -> {}); // the copy is whole, a cancel no longer applies
+    }
+
+    // every regular file under src has a counterpart of the same size under dest
+    private static ErrorCode verifyCopy(final Path src, final Path dest, final Job job) {
+        final AtomicBoolean mismatch = new AtomicBoolean();
+        final ParallelTreeWalker.Visitor check = (file, attrs, depth) -> {
+            if (!attrs.isRegularFile() || mismatch.get())
+                return;
+            final Path copy = file.equals(src) ? dest : dest.resolve(src.relativize(file).toString());
+            try {
+                if (job.cancelledFlag().get() || Files.size(copy) != attrs.size())
+                    mismatch.set(true);
+            } catch (final IOException e) {
+                mismatch.set(true);
+            }
+        };
+        try {
+            final BasicFileAttributes attrs = Files.readAttributes(src, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (attrs.isDirectory())
+                ParallelTreeWalker.walk(src, Integer.MAX_VALUE, ListOption.SHOW_HIDDEN, mismatch, check);
+            else
+                check.visit(src, attrs, 0);
+        } catch (final IOException e) {
+            return ErrorCode.IO_ERROR;
+        }
+        if (job.cancelledFlag().get())
+            return ErrorCode.CANCELLED;
+        if (mismatch.get() && DEBUG)
+            System.out.println("COPY OF " + src + " DOES NOT MATCH, KEEPING THE SOURCE");
+        return mismatch.get() ? ErrorCode.VERIFY_FAILED : ErrorCode.SUCCESS;
+    }
+
     public ErrorCode nonAsyncMove(final String destination, final String... names) {
         for (final String name : names) {
             ErrorCode err = nonAsyncMove(".", name, destination, name);
@@ -295,58 +661,178 @@ public final class FolderImpl implements Folder {
         return ErrorCode.SUCCESS;
     }
 
-    public Future<ErrorCode> move(final String srcPath, final String srcName, final String destPath, final String destName) {
-        final Callable<ErrorCode> moveTask = () -> {
-            return nonAsyncMove(srcPath, srcName, destPath, destName);
-        };
-        Future<ErrorCode> futureResult = executorService.submit(moveTask);
-        futureWorkStats.put("mv " + srcPath + srcName + " " + destPath + destName, futureResult);
-        return futureResult;
+    public CompletableFuture<ErrorCode> move(final String srcPath, final String srcName, final String destPath, final String destName) {
+        final String srcFileLocation = locate(srcPath, srcName), destFileLocation = locate(destPath, destName); // resolved now, a later cd must not retarget a queued job
+        return submitJournaled("mv", srcFileLocation, destFileLocation, null);
     }
 
-    public Future<ErrorCode> move(final String destination, final String... names) {
-        final List<Future<ErrorCode>> futures = new ArrayList<>();
+    public CompletableFuture<BatchResult> moveAsync(final String destination, final String... names) {
+        final List<CompletableFuture<ErrorCode>> items = new ArrayList<>();
+        for (final String name : names)
+            items.add(move(".", name, destination, name));
+        return allOf(names, items);
+    }
 
-        for (final String name : names) {
-            final Future<ErrorCode> futureResult = executorService.submit(() -> {
-                return nonAsyncMove(".", name, destination, name);
+    public CompletableFuture<ErrorCode> move(final String destination, final String... names) {
+        return moveAsync(destination, names).thenApply(BatchResult::firstError);
+    }
+
+    public CompletableFuture<ErrorCode> deleteRecursive(final String srcPath, final String srcName) {
+        final String location = locate(srcPath, srcName);
+        if ((getPath() + getName() + '/').startsWith(location + '/')) // we are standing inside it
+            return CompletableFuture.completedFuture(ErrorCode.OPERATION_NOT_SUPPORTED);
+        return submitJob("rm", location, location, estimateBytes(location), job -> nonAsyncDeleteRecursive(location, job));
+    }
+
+    public CompletableFuture<BatchResult> deleteRecursiveAsync(final String... names) {
+        final List<CompletableFuture<ErrorCode>> items = new ArrayList<>();
+        for (final String name : names)
+            items.add(deleteRecursive(".", name));
+        return allOf(names, items);
+    }
+
+    // one exclusive lease on the root covers the whole subtree, nothing below is locked path by path
+    private ErrorCode nonAsyncDeleteRecursive(final String location, final Job job) {
+        if (!Files.exists(Paths.get(location), LinkOption.NOFOLLOW_LINKS))
+            return ErrorCode.ENTITY_NOT_FOUND;
+        final PathLockManager.Lease lease = PathLockManager.tryAcquireExclusive(location);
+        if (lease == null)
+            return ErrorCode.ENTITY_IS_LOCKED;
+        if (DEBUG)
+            System.out.println("DELETING RECURSIVELY " + location);
+        try {
+            job.sizing();
+            job.running(-1, -1);
+            SubtreeSizeCache.sizeInBackground(Paths.get(location), job); // races the delete, so a total shows only if du knew the tree
+            return ParallelTreeDeleter.delete(Paths.get(location), job.cancelledFlag(), attrs -> {
+                job.addBytes(attrs.isRegularFile() ? attrs.size() : 0);
+                if (!attrs.isDirectory()) // files as du counts them, so they add up to the total
+                    job.fileDone();
             });
-            futureWorkStats.put("mv " + getPath() + getName() + name + " " + destination + name, futureResult);
-            futures.add(futureResult);
+        } finally {
+            DirectoryListingCache.invalidate(location);
+            SubtreeSizeCache.invalidate(location);
+            FilenameIndex.refresh(location);
+            lease.close();
         }
+    }
 
-        return executorService.submit(() -> {
-            for (final Future<ErrorCode> future : futures) {
-                try {
-                    final ErrorCode errorCode = future.get();
-                    if (errorCode != ErrorCode.SUCCESS)
-                        return errorCode;
-                } catch (final InterruptedException | ExecutionException e) {
-                    return ErrorCode.UNKOWN_ERROR;
-                }
-            }
+    public CompletableFuture<ErrorCode> pack(final String srcPath, final String srcName, final String destPath, final String archiveName) {
+        final String srcFileLocation = locate(srcPath, srcName), archiveLocation = locate(destPath, archiveName);
+        return submitJob("pack", srcFileLocation, archiveLocation, estimateBytes(srcFileLocation), job -> nonAsyncPack(srcFileLocation, archiveLocation, job));
+    }
+
+    public CompletableFuture<ErrorCode> pack(final String name, final String archiveName) {
+        return pack(".", name, ".", archiveName);
+    }
+
+    private ErrorCode nonAsyncPack(final String srcFileLocation, final String archiveLocation, final Job job) {
+        if (!Files.exists(Paths.get(srcFileLocation), LinkOption.NOFOLLOW_LINKS))
+            return ErrorCode.ENTITY_NOT_FOUND;
+        final PathLockManager.Lease lease = PathLockManager.tryAcquire(new String[] { srcFileLocation }, new String[] { archiveLocation });
+        if (lease == null)
+            return ErrorCode.ENTITY_IS_LOCKED;
+        if (DEBUG)
+            System.out.println("PACKING " + srcFileLocation + " INTO " + archiveLocation);
+        try {
+            job.sizing();
+            ZipArchiver.pack(Paths.get(srcFileLocation), Paths.get(archiveLocation), executorService, job);
             return ErrorCode.SUCCESS;
-        });
+        } catch (final Exception e) {
+            if (DEBUG)
+                e.printStackTrace();
+            return ParallelTreeCopier.toErrorCode(e);
+        } finally {
+            DirectoryListingCache.invalidate(archiveLocation);
+            SubtreeSizeCache.invalidate(archiveLocation);
+            FilenameIndex.refresh(archiveLocation);
+            lease.close();
+        }
+    }
+
+    public CompletableFuture<ErrorCode> unpack(final String archivePath, final String archiveName, final String destination) {
+        final String archiveLocation = locate(archivePath, archiveName), destLocation = locate(destination, "");
+        return submitJob("unpack", archiveLocation, destLocation, estimateBytes(archiveLocation), job -> nonAsyncUnpack(archiveLocation, destLocation, job));
+    }
+
+    public CompletableFuture<ErrorCode> unpack(final String archiveName, final String destination) {
+        return unpack(".", archiveName, destination);
+    }
+
+    // what the archive puts at the top of the destination is locked the way create locks new folders
+    private ErrorCode nonAsyncUnpack(final String archiveLocation, final String destLocation, final Job job) {
+        final Set<String> roots;
+        try {
+            job.sizing();
+            roots = ZipArchiver.roots(Paths.get(archiveLocation));
+        } catch (final java.nio.file.NoSuchFileException e) {
+            return ErrorCode.ENTITY_NOT_FOUND;
+        } catch (final IOException e) {
+            return ErrorCode.IO_ERROR;
+        }
+        if (roots == null)
+            return ErrorCode.ILLEGAL_NAME;
+        final String[] created = roots.stream().map(root -> destLocation + root).toArray(String[]::new);
+        final PathLockManager.Lease lease = PathLockManager.tryAcquire(new String[] { archiveLocation }, created);
+        if (lease == null)
+            return ErrorCode.ENTITY_IS_LOCKED;
+        if (DEBUG)
+            System.out.println("UNPACKING " + archiveLocation + " INTO " + destLocation);
+        try {
+            ZipArchiver.unpack(Paths.get(archiveLocation), Paths.get(destLocation), executorService, job);
+            return ErrorCode.SUCCESS;
+        } catch (final Exception e) {
+            if (DEBUG)
+                e.printStackTrace();
+            return ParallelTreeCopier.toErrorCode(e);
+        } finally {
+            DirectoryListingCache.invalidate(created);
+            SubtreeSizeCache.invalidate(created);
+            FilenameIndex.refresh(created);
+            lease.close();
+        }
     }
 
     public ErrorCode rename(final String oldName, final String newName) {
         return nonAsyncMove(".", oldName, ".", newName);
     }
 
-    public CopyOnWriteArrayList<String> listFiles(final ListOption opt) {
-        final CopyOnWriteArrayList<String> files = new CopyOnWriteArrayList<>();
-        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(path + name), Files::isRegularFile)) {
-            for (final Path path : stream)
-                if (opt == ListOption.SHOW_HIDDEN || !Files.isHidden(path))
-                    files.add(Parser.getName(path.toString()));
+    private List<DirEntry> listEntries() {
+        try {
+            return DirectoryListingCache.get(path + name).entries();
         } catch (final IOException | DirectoryIteratorException e) {
             if (DEBUG)
                 e.printStackTrace();
         } catch (final Exception e) {
             System.out.println(ErrorCode.UNKOWN_ERROR);
         }
-        files.sort(Comparator.naturalOrder());
-        return files;
+        return List.of();
+    }
+
+    public DirectoryCursor listCursor(final ListOption opt, final Comparator<DirEntry> order, final int limit, final int pageSize) {
+        try {
+            return new DirectoryCursor(Paths.get(path + name).toAbsolutePath().normalize(), opt, order, limit, pageSize);
+        } catch (final IOException | UncheckedIOException | DirectoryIteratorException e) {
+            if (DEBUG)
+                e.printStackTrace();
+        }
+        return DirectoryCursor.empty(pageSize);
+    }
+
+    public DirectoryCursor listCursor(final ListOption opt) {
+        return listCursor(opt, DirectoryCursor.FOLDERS_FIRST, 0, 1000);
+    }
+
+    private CopyOnWriteArrayList<String> listEntries(final DirEntry.Kind kind, final ListOption opt) {
+        final List<String> names = new ArrayList<>();
+        for (final DirEntry entry : listEntries()) // cached listing is already sorted by name
+            if (entry.kind() == kind && (opt == ListOption.SHOW_HIDDEN || !entry.hidden()))
+                names.add(entry.name());
+        return new CopyOnWriteArrayList<>(names);
+    }
+
+    public CopyOnWriteArrayList<String> listFiles(final ListOption opt) {
+        return listEntries(DirEntry.Kind.FILE, opt);
     }
 
     public CopyOnWriteArrayList<String> listFiles() {
@@ -354,19 +840,7 @@ public final class FolderImpl implements Folder {
     }
 
     public CopyOnWriteArrayList<String> listFolders(final ListOption opt) {
-        final CopyOnWriteArrayList<String> folders = new CopyOnWriteArrayList<>();
-        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(path + name), Files::isDirectory)) {
-            for (final Path path : stream)
-                if (opt == ListOption.SHOW_HIDDEN || !Files.isHidden(path))
-                    folders.add(Parser.getName(path.toString()));
-        } catch (final IOException | DirectoryIteratorException e) {
-            if (DEBUG)
-                e.printStackTrace();
-        } catch (final Exception e) {
-            System.out.println(ErrorCode.UNKOWN_ERROR);
-        }
-        folders.sort(Comparator.naturalOrder());
-        return folders;
+        return listEntries(DirEntry.Kind.DIRECTORY, opt);
     }
 
     public CopyOnWriteArrayList<String> listFolders() {
@@ -374,14 +848,16 @@ public final class FolderImpl implements Folder {
     }
 
     public CopyOnWriteArrayList<String> regexFilter(final String patternString, final ListOption opt) {
-        final CopyOnWriteArrayList<String> Filtered = new CopyOnWriteArrayList<String>();
+        final List<String> filteredFiles = new ArrayList<>(), filteredFolders = new ArrayList<>();
         final Pattern pattern = Pattern.compile(patternString);
-        for (final String candidateFile : listFiles(opt))
-            if (pattern.matcher(candidateFile).matches())
-                Filtered.add(candidateFile);
-        for (final String candidateFolder : listFolders(opt))
-            if (pattern.matcher(candidateFolder).matches())
-                Filtered.add(candidateFolder);
+        for (final DirEntry entry : listEntries())
+            if ((opt == ListOption.SHOW_HIDDEN || !entry.hidden()) && pattern.matcher(entry.name()).matches())
+                if (entry.kind() == DirEntry.Kind.FILE)
+                    filteredFiles.add(entry.name());
+                else if (entry.kind() == DirEntry.Kind.DIRECTORY)
+                    filteredFolders.add(entry.name());
+        final CopyOnWriteArrayList<String> Filtered = new CopyOnWriteArrayList<String>(filteredFiles);
+        Filtered.addAll(filteredFolders);
         return Filtered;
     }
 
@@ -389,6 +865,103 @@ public final class FolderImpl implements Folder {
         return regexFilter(patternString, ListOption.NONE);
     }
 
+    // walks the subtree in parallel and reports paths relative to here as they match, kind == null matches any kind
+    public int find(final String patternString, final ListOption opt, final DirEntry.Kind kind, final int maxDepth, final int maxResults, final Consumer<String> onMatch) {
+        final Pattern pattern = Pattern.compile(patternString);
+        final Path root = Paths.get(path + name).toAbsolutePath().normalize();
+        final int limit = maxResults > 0 ? maxResults : Integer.MAX_VALUE;
+        final AtomicInteger hits = new AtomicInteger();
+        final int indexed = FilenameIndex.query(root, pattern, opt, kind, maxDepth > 0 ? maxDepth : Integer.MAX_VALUE, limit, onMatch);
+        if (indexed >= 0)
+            return indexed;
+        final AtomicBoolean stop = new AtomicBoolean();
+        ParallelTreeWalker.walk(root, maxDepth > 0 ? maxDepth : Integer.MAX_VALUE, opt, stop, (candidate, attrs, depth) -> {
+            if ((kind == null || ParallelTreeWalker.kindOf(attrs) == kind) && pattern.matcher(candidate.getFileName().toString()).matches()) {
+                final int hit = hits.incrementAndGet();
+                if (hit <= limit)
+                    onMatch.accept(root.relativize(candidate).toString());
+                if (hit >= limit)
+                    stop.set(true);
+            }
+        });
+        return Math.min(hits.get(), limit);
+    }
+
+    // searches file contents under here in parallel, reports "path:line: text" as lines match, -1 if the subtree is locked
+    public int grep(final String patternString, final ListOption opt, final int maxResults, final Consumer<String> onMatch) {
+        final ContentSearcher searcher = new ContentSearcher(Paths.get(path + name).toAbsolutePath().normalize(), patternString, maxResults, onMatch);
+        try (final PathLockManager.Lease lease = PathLockManager.tryAcquireShared(path + name)) { // no mv/rm underneath while files are mapped
+            if (lease == null)
+                return -1;
+            return searcher.search(opt);
+        }
+    }
+
+    public ErrorCode verify(final Consumer<String> onResult) { // re-hashes every file a manifest under this folder lists, one line per file
+        final Path root = Paths.get(path + name).toAbsolutePath().normalize();
+        final AtomicInteger failures = new AtomicInteger();
+        try (final PathLockManager.Lease lease = PathLockManager.tryAcquireShared(path + name)) {
+            if (lease == null)
+                return ErrorCode.ENTITY_IS_LOCKED;
+            ParallelTreeWalker.walk(root, Integer.MAX_VALUE, ListOption.SHOW_HIDDEN, new AtomicBoolean(), (file, attrs, depth) -> {
+                if (!attrs.isRegularFile() || !file.getFileName().toString().equals(CopyManifest.FILE_NAME))
+                    return;
+                try {
+                    for (final Map.Entry<String, CopyManifest.Entry> recorded : CopyManifest.load(file).entrySet()) {
+                        final Path copy = file.resolveSibling(recorded.getKey());
+                        String status;
+                        try {
+                            status = Files.size(copy) == recorded.getValue().size() && FileChecksum.of(copy) == recorded.getValue().checksum() ? "OK" : "MISMATCH";
+                        } catch (final java.nio.file.NoSuchFileException e) {
+                            status = "MISSING";
+                        }
+                        if (!status.equals("OK"))
+                            failures.incrementAndGet();
+                        onResult.accept(root.relativize(copy) + ": " + status);
+                    }
+                } catch (final IOException e) {
+                    failures.incrementAndGet();
+                    onResult.accept(root.relativize(file) + ": " + ErrorCode.IO_ERROR);
+                }
+            });
+        }
+        return failures.get() == 0 ? ErrorCode.SUCCESS : ErrorCode.VERIFY_FAILED;
+    }
+
+    public DiskUsage du(final ListOption opt) { // subtree totals of each child, largest first, null if unreadable
+        try {
+            return SubtreeSizeCache.du(Paths.get(path + name).toAbsolutePath().normalize(), opt);
+        } catch (final IOException e) {
+            if (DEBUG)
+                e.printStackTrace();
+        }
+        return null;
+    }
+
+    public DiskUsage du() {
+        return du(ListOption.NONE);
+    }
+
+    public List<DuplicateGroup> dupes(final ListOption opt) { // biggest savings first, null if the folder is locked
+        try (final PathLockManager.Lease lease = PathLockManager.tryAcquireShared(path + name)) {
+            if (lease == null)
+                return null;
+            return new DuplicateFinder(Paths.get(path + name).toAbsolutePath().normalize()).find(opt);
+        }
+    }
+
+    public List<DuplicateGroup> dupes() {
+        return dupes(ListOption.NONE);
+    }
+
+    public boolean buildIndex() { // background crawl of the current folder's subtree, false if one is already running
+        return FilenameIndex.buildInBackground(Paths.get(path + name));
+    }
+
+    public String getIndexStatus() {
+        return FilenameIndex.status();
+    }
+
     public ErrorCode stepIn(final String target) {
         if (DEBUG)
             System.out.println("STEPPING IN FROM PATH=" + path + " NAME=" + name + " TO " + target);
@@ -490,6 +1063,16 @@ public final class FolderImpl implements Folder {
     }
 
     public void shutdownExecutorService() {
+        try {
+            if (!scheduler.awaitIdle(60, TimeUnit.SECONDS)) // queued jobs still need the pools below
+                System.err.println("Queued jobs did not finish before shutdown");
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        scheduler.shutdown();
+        ParallelTreeCopier.shutdown();
+        ParallelTreeDeleter.shutdown();
+        ParallelTreeWalker.shutdown();
         executorService.shutdown();
         try {
             if (!executorService.awaitTermination(60, TimeUnit.SECONDS)) {
@@ -501,5 +1084,6 @@ public final class FolderImpl implements Folder {
             executorService.shutdownNow();
             Thread.currentThread().interrupt();
         }
+        journal.close(); // after the drain, so finished jobs are marked done and an idle journal is removed
     }
 }
\ No newline at end of file
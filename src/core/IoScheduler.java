@@ -0,0 +1,278 @@
+package core;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+final class IoScheduler { // one queue and concurrency limit per device, each limit hill-climbs on that device's throughput
+    private static final int INITIAL_LIMIT = Integer.getInteger("explorer.io.initialLimit", 2);
+    private static final int MAX_LIMIT = Integer.getInteger("explorer.io.maxLimit", 32);
+    private static final long TUNE_MILLIS = Long.getLong("explorer.io.tuneMillis", 1000);
+    // a job waits this long per doubling of its size before a job half as big stops overtaking it, so large jobs age into the lead
+    private static final long AGING_NANOS_PER_DOUBLING = TimeUnit.MILLISECONDS.toNanos(Long.getLong("explorer.io.agingMillis", 250));
+    private static final long SMALL_JOB_BYTES = Long.getLong("explorer.io.smallJobBytes", 1024 * 1024);
+    private static final int EXPRESS_SLOTS = Integer.getInteger("explorer.io.expressSlots", 2); // extra slots only small jobs may use
+    private static final long UNKNOWN_BYTES = 1L << 30; // uncached directory trees rank as 1GiB until they age
+
+    private static final class Device {
+        private final String name;
+        private final TreeSet<Pending> queue = new TreeSet<>(BY_DEADLINE);
+        private final Set<Pending> active = new HashSet<>();
+        private int limit = INITIAL_LIMIT, running, direction = 1;
+        private long finishedBytes, sampledBytes, sampledAt = System.nanoTime();
+        private double rate;
+
+        Device(final String name) {
+            this.name = name;
+        }
+    }
+
+    private static final class Pending {
+        private final Job job;
+        private final Device[] devices; // distinct, one entry when source and target share a device
+        private final Supplier<ErrorCode> work;
+        private final CompletableFuture<ErrorCode> result = new CompletableFuture<>();
+        private final boolean small;
+        private final long deadline, sequence;
+
+        Pending(final Job job, final Device[] devices, final Supplier<ErrorCode> work, final long estimatedBytes, final long sequence) {
+            this.job = job;
+            this.devices = devices;
+            this.work = work;
+            final long bytes = estimatedBytes < 0 ? UNKNOWN_BYTES : estimatedBytes;
+            this.small = bytes <= SMALL_JOB_BYTES;
+            this.deadline = System.nanoTime() + (64 - Long.numberOfLeadingZeros(bytes)) * AGING_NANOS_PER_DOUBLING; // fixed at submit, yet orders as if priorities aged
+            this.sequence = sequence;
+        }
+    }
+
+    private static final Comparator<Pending> BY_DEADLINE = Comparator.comparingLong((final Pending pending) -> pending.deadline).thenComparingLong(pending -> pending.sequence);
+
+    private final ExecutorService runners;
+    private final int maxJobs; // across all devices, the one cap on running jobs since nothing else admits them
+    private int runningJobs; // guarded by lock
+    private long nextSequence; // guarded by lock
+    private final ConcurrentHashMap<Object, Device> devices = new ConcurrentHashMap<>(); // keyed by st_dev where the platform has it
+    private final ReentrantLock lock = new ReentrantLock(); // guards every Device's mutable state
+    private final Condition idle = lock.newCondition();
+    private final ScheduledExecutorService tuner = Executors.newSingleThreadScheduledExecutor(task -> {
+        final Thread thread = new Thread(task, "io-scheduler-tuner");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    IoScheduler(final ExecutionMode executionMode) {
+        this.runners = executionMode.newJobRunner();
+        this.maxJobs = executionMode.defaultConcurrentJobs();
+        tuner.scheduleWithFixedDelay(this::tune, TUNE_MILLIS, TUNE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // runs work once every device it touches has a free slot, smallest estimate first, source and target stores are resolved here on the caller
+    CompletableFuture<ErrorCode> submit(final Job job, final Path source, final Path target, final long estimatedBytes, final Supplier<ErrorCode> work) {
+        final Set<Device> touched = new LinkedHashSet<>();
+        touched.add(deviceOf(source));
+        touched.add(deviceOf(target));
+        lock.lock();
+        try {
+            final Pending pending = new Pending(job, touched.toArray(new Device[0]), work, estimatedBytes, nextSequence++);
+            for (final Device device : pending.devices)
+                device.queue.add(pending);
+            dispatch();
+            return pending.result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    List<String> render() {
+        final List<String> lines = new ArrayList<>();
+        lock.lock();
+        try {
+            lines.add("jobs: " + runningJobs + "/" + maxJobs + "+" + EXPRESS_SLOTS + " running");
+            for (final Device device : devices.values())
+                lines.add("device " + device.name + ": " + device.running + "/" + device.limit + "+" + EXPRESS_SLOTS + " running, " + device.queue.size() + " queued, " + DiskUsage.humanReadable((long) device.rate) + "/s");
+        } finally {
+            lock.unlock();
+        }
+        return lines;
+    }
+
+    boolean awaitIdle(final long timeout, final TimeUnit unit) throws InterruptedException { // lets queued jobs run before the pools shut down
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (!isIdle()) {
+                if (nanos <= 0)
+                    return false;
+                nanos = idle.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void shutdown() {
+        tuner.shutdownNow();
+        runners.shutdown(); // idle by now, awaitIdle came first
+    }
+
+    private boolean isIdle() { // lock held
+        for (final Device device : devices.values())
+            if (device.running > 0 || !device.queue.isEmpty())
+                return false;
+        return true;
+    }
+
+    private Device deviceOf(final Path path) {
+        final Path existing = nearestExisting(path);
+        return devices.computeIfAbsent(deviceKey(existing), unused -> new Device(storeName(existing)));
+    }
+
+    static boolean sameDevice(final Path a, final Path b) { // false means a move cannot be a rename
+        return deviceKey(nearestExisting(a)).equals(deviceKey(nearestExisting(b)));
+    }
+
+    private static Path nearestExisting(final Path path) {
+        Path existing = path.toAbsolutePath().normalize();
+        while (existing.getParent() != null && !Files.exists(existing, LinkOption.NOFOLLOW_LINKS))
+            existing = existing.getParent(); // a copy target usually does not exist yet, its parent decides the device
+        return existing;
+    }
+
+    private static Object deviceKey(final Path existing) {
+        try {
+            return Files.getAttribute(existing, "unix:dev", LinkOption.NOFOLLOW_LINKS); // one stat, unlike FileStore which parses the mount table
+        } catch (final UnsupportedOperationException | IllegalArgumentException | IOException e) {
+            try {
+                return Files.getFileStore(existing);
+            } catch (final IOException unknown) {
+                return "unknown";
+            }
+        }
+    }
+
+    private static String storeName(final Path path) {
+        try {
+            return Files.getFileStore(path).toString();
+        } catch (final IOException e) {
+            return "unknown";
+        }
+    }
+
+    private void dispatch() { // lock held
+        final List<Pending> started = new ArrayList<>();
+        for (final Device device : devices.values())
+            for (final Iterator<Pending> it = device.queue.iterator(); it.hasNext() && device.running < device.limit + EXPRESS_SLOTS;) {
+                final Pending pending = it.next();
+                if (!canStart(pending))
+                    continue; // big job with only express slots left, or its other device is saturated
+                it.remove();
+                for (final Device other : pending.devices)
+                    if (other != device)
+                        other.queue.remove(pending);
+                reserve(pending);
+                started.add(pending);
+            }
+        started.forEach(this::start); // a job done before its callback is attached finishes right here and dispatches again, never mid iteration
+    }
+
+    private boolean canStart(final Pending pending) { // small jobs may use the express slots, so big transfers never block them outright
+        if (pending.job.cancelledFlag().get())
+            return true; // ends at once without touching the disk, no reason to keep it queued
+        if (runningJobs >= maxJobs + (pending.small ? EXPRESS_SLOTS : 0))
+            return false;
+        for (final Device device : pending.devices)
+            if (device.running >= device.limit + (pending.small ? EXPRESS_SLOTS : 0))
+                return false;
+        return true;
+    }
+
+    private void reserve(final Pending pending) { // lock held
+        runningJobs++;
+        for (final Device device : pending.devices) {
+            device.running++;
+            device.active.add(pending);
+        }
+    }
+
+    private void start(final Pending pending) { // lock held, slots already reserved
+        try {
+            CompletableFuture.supplyAsync(pending.work, runners).whenComplete((result, failure) -> finish(pending, result, failure));
+        } catch (final RejectedExecutionException e) {
+            runningJobs--;
+            for (final Device device : pending.devices) {
+                device.running--;
+                device.active.remove(pending);
+            }
+            pending.result.completeExceptionally(e);
+        }
+    }
+
+    private void finish(final Pending pending, final ErrorCode result, final Throwable failure) {
+        lock.lock();
+        try {
+            runningJobs--;
+            for (final Device device : pending.devices) {
+                device.running--;
+                device.active.remove(pending);
+                device.finishedBytes += pending.job.bytesDone();
+            }
+            dispatch();
+            if (isIdle())
+                idle.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (failure != null)
+            pending.result.completeExceptionally(failure);
+        else
+            pending.result.complete(result);
+    }
+
+    private void tune() {
+        lock.lock();
+        try {
+            final long now = System.nanoTime();
+            for (final Device device : devices.values()) {
+                long bytes = device.finishedBytes;
+                for (final Pending pending : device.active)
+                    bytes += pending.job.bytesDone();
+                final double rate = (bytes - device.sampledBytes) * 1e9 / Math.max(1, now - device.sampledAt);
+                if (!device.queue.isEmpty() && device.running >= device.limit) { // only a saturated device tells us anything
+                    if (rate < device.rate * 0.9)
+                        device.direction = -device.direction; // the last step hurt, walk back
+                    device.limit = Math.max(1, Math.min(MAX_LIMIT, device.limit + device.direction));
+                    if (Entity.DEBUG)
+                        System.out.println("DEVICE " + device.name + " AT " + (long) rate + " B/S, LIMIT NOW " + device.limit);
+                } else
+                    device.direction = 1;
+                device.rate = rate;
+                device.sampledBytes = bytes;
+                device.sampledAt = now;
+            }
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package core;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+final class Job { // one cp/mv request as iostat sees it, counters are bumped by whichever thread moves the bytes
+    enum State {
+        QUEUED, SIZING, RUNNING, SUCCEEDED, FAILED, CANCELLED
+    }
+
+    private static final long SAMPLE_NANOS = TimeUnit.MILLISECONDS.toNanos(250); // window of the instantaneous rate
+
+    private final int id;
+    private final String description;
+    private final AtomicLong bytesDone = new AtomicLong(), filesDone = new AtomicLong(), filesVerified = new AtomicLong(), bytesSaved = new AtomicLong(), holes = new AtomicLong(); // both counted as done but never written
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private volatile long bytesTotal = -1, filesTotal = -1; // -1 until sized
+    private volatile State state = State.QUEUED;
+    private volatile long startedNanos, finishedNanos;
+    private volatile ErrorCode result;
+    private Thread runner; // guarded by this, set only while the job's own thread is inside it
+    private long sampleNanos, sampleBytes; // guarded by this
+    private volatile double instantRate;
+    private volatile JobJournal.Entry journal; // null for untracked jobs like slowcp
+
+    Job(final int id, final String description) {
+        this.id = id;
+        this.description = description;
+    }
+
+    int id() {
+        return id;
+    }
+
+    State state() {
+        return state;
+    }
+
+    long bytesDone() {
+        return bytesDone.get();
+    }
+
+    ErrorCode result() {
+        return result;
+    }
+
+    boolean isFinished() {
+        return state == State.SUCCEEDED || state == State.FAILED || state == State.CANCELLED;
+    }
+
+    void attach(final JobJournal.Entry journal) {
+        this.journal = journal;
+    }
+
+    JobJournal.Entry journal() {
+        return journal;
+    }
+
+    AtomicBoolean cancelledFlag() { // shared with the tree copier as its stop flag
+        return cancelled;
+    }
+
+    void checkCancelled() throws InterruptedIOException {
+        if (cancelled.get())
+            throw new InterruptedIOException("Job " + id + " cancelled");
+    }
+
+    boolean cancel() {
+        if (isFinished() || !cancelled.compareAndSet(false, true))
+            return false;
+        synchronized (this) {
+            if (runner != null)
+                runner.interrupt(); // wakes a job blocked on a latch or inside an interruptible channel
+        }
+        return true;
+    }
+
+    synchronized void bind(final Thread thread) {
+        runner = thread;
+    }
+
+    synchronized void unbind() {
+        runner = null;
+        Thread.interrupted(); // a late cancel must not leak its interrupt into the next task on this pool thread
+    }
+
+    void sizing() {
+        state = State.SIZING;
+        startedNanos = System.nanoTime();
+        synchronized (this) {
+            sampleNanos = startedNanos;
+        }
+    }
+
+    void running(final long bytesTotal, final long filesTotal) {
+        this.bytesTotal = bytesTotal;
+        this.filesTotal = filesTotal;
+        if (startedNanos == 0)
+            sizing();
+        state = State.RUNNING;
+    }
+
+    void sized(final long bytesTotal, final long filesTotal) { // totals counted while the job was already running
+        if (isFinished())
+            return;
+        this.bytesTotal = bytesTotal;
+        this.filesTotal = filesTotal;
+    }
+
+    void addBytes(final long bytes) {
+        final long done = bytesDone.addAndGet(bytes);
+        final long now = System.nanoTime();
+        if (now - sampleNanos >= SAMPLE_NANOS) // racy read is fine, the sample itself is taken under the lock
+            synchronized (this) {
+                if (now - sampleNanos >= SAMPLE_NANOS) {
+                    final double rate = (done - sampleBytes) * 1e9 / (now - sampleNanos);
+                    instantRate = instantRate == 0 ? rate : (instantRate + rate) / 2; // smooths bursty chunk completions
+                    sampleNanos = now;
+                    sampleBytes = done;
+                }
+            }
+    }
+
+    void addSaved(final long bytes) {
+        bytesSaved.addAndGet(bytes);
+    }
+
+    void addHoles(final long bytes) { // zero blocks a sparse copy seeked over
+        if (bytes > 0)
+            holes.addAndGet(bytes);
+    }
+
+    void fileVerified() {
+        filesVerified.incrementAndGet();
+    }
+
+    void fileDone() {
+        filesDone.incrementAndGet();
+    }
+
+    void finish(final ErrorCode errorCode) {
+        result = cancelled.get() ? ErrorCode.CANCELLED : errorCode;
+        finishedNanos = System.nanoTime();
+        state = result == ErrorCode.SUCCESS ? State.SUCCEEDED : result == ErrorCode.CANCELLED ? State.CANCELLED : State.FAILED;
+    }
+
+    String render() {
+        final StringBuilder line = new StringBuilder().append('[').append(id).append("] ").append(state).append(' ').append(description);
+        final long done = bytesDone.get(), total = bytesTotal;
+        final long elapsedNanos = (isFinished() ? finishedNanos : System.nanoTime()) - startedNanos;
+        if (total >= 0) {
+            line.append("  ").append(DiskUsage.humanReadable(done)).append('/').append(DiskUsage.humanReadable(total));
+            if (total > 0)
+                line.append(" (").append(Math.min(100, done * 100 / total)).append("%)");
+        }
+        if (filesTotal >= 0)
+            line.append("  ").append(filesDone.get()).append('/').append(filesTotal).append(" files");
+        else if (filesDone.get() > 0) // counted as they go, like rm -r
+            line.append("  ").append(filesDone.get()).append(" files");
+        if (filesVerified.get() > 0)
+            line.append("  ").append(filesVerified.get()).append(" verified");
+        if (bytesSaved.get() > 0)
+            line.append("  ").append(DiskUsage.humanReadable(bytesSaved.get())).append(" unchanged");
+        if (holes.get() > 0) // what actually hit the disk
+            line.append("  ").append(DiskUsage.humanReadable(done - bytesSaved.get() - holes.get())).append(" written, ").append(DiskUsage.humanReadable(holes.get())).append(" sparse");
+        if (startedNanos == 0) // never got past its checks
+            return isFinished() ? line.append(": ").append(result).toString() : line.toString();
+        final double averageRate = elapsedNanos > 0 ? done * 1e9 / elapsedNanos : 0;
+        if (isFinished() && total < 0)
+            return line.append("  in ").append(formatSeconds(elapsedNanos / 1_000_000_000L)).append(": ").append(result).toString();
+        if (isFinished())
+            return line.append("  in ").append(formatSeconds(elapsedNanos / 1_000_000_000L)).append(" avg ").append(DiskUsage.humanReadable((long) averageRate)).append("/s: ").append(result).toString();
+        final boolean stalled = System.nanoTime() - sampleNanos > 4 * SAMPLE_NANOS; // no bytes for a while, the last rate is stale
+        final double rate = stalled ? 0 : instantRate > 0 ? instantRate : averageRate; // no sample yet in the first window
+        line.append("  now ").append(DiskUsage.humanReadable((long) rate)).append("/s avg ").append(DiskUsage.humanReadable((long) averageRate)).append("/s");
+        final double etaRate = rate > 0 ? rate : averageRate;
+        if (state == State.RUNNING && total > 0 && etaRate > 0)
+            line.append("  ETA ").append(formatSeconds((long) ((total - done) / etaRate)));
+        if (cancelled.get())
+            line.append("  cancelling");
+        return line.toString();
+    }
+
+    private static String formatSeconds(final long seconds) {
+        return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+}
@@ -0,0 +1,312 @@
+package core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+final class JobJournal { // append-only log of cp/mv/sync jobs, group-committed on a cadence and replayed at startup so resume can finish them
+    private static final Path JOURNAL_FILE = Paths.get(System.getProperty("user.home"), ".explorer-journal.log");
+    private static final long SYNC_MILLIS = Long.getLong("explorer.journal.syncMillis", 200); // records wait at most this long before their fsync
+    private static final byte PLANNED = 1, STARTED = 2, RANGE = 3, DONE = 4;
+
+    @FunctionalInterface
+    private interface Fields {
+        void write(final DataOutputStream out) throws IOException;
+    }
+
+    private record Range(String part, String partKey, long sourceSize, long sourceMillis, long start, long end) {
+    }
+
+    final class Entry { // one top-level cp/mv/sync item
+        private final long key, plannedMillis;
+        private final String verb, source, target;
+        private final boolean resumed;
+        private final List<Range> ranges = new CopyOnWriteArrayList<>(); // durable byte ranges the crashed run left in part files
+        private volatile boolean started;
+
+        private Entry(final long key, final String verb, final String source, final String target, final long plannedMillis, final boolean resumed) {
+            this.key = key;
+            this.verb = verb;
+            this.source = source;
+            this.target = target;
+            this.plannedMillis = plannedMillis;
+            this.resumed = resumed;
+        }
+
+        String verb() {
+            return verb;
+        }
+
+        String source() {
+            return source;
+        }
+
+        String target() {
+            return target;
+        }
+
+        long plannedMillis() {
+            return plannedMillis;
+        }
+
+        boolean isResumed() {
+            return resumed;
+        }
+
+        String describe() {
+            return verb + " " + source + " -> " + target + (started ? " (interrupted)" : " (never started)");
+        }
+
+        void started() {
+            started = true;
+            append(record(STARTED, key, out -> {
+            }));
+        }
+
+        // only call once [start, end) of part is forced to disk, the journal must never claim bytes a crash can lose
+        void range(final Path part, final long sourceSize, final long sourceMillis, final long start, final long end) throws IOException {
+            append(rangeRecord(key, new Range(part.toString(), fileKey(part), sourceSize, sourceMillis, start, end)));
+        }
+
+        // empty if the source changed since, or the part file is not the one the ranges were written to
+        List<long[]> resumedRanges(final Path part, final long sourceSize, final long sourceMillis) {
+            final List<long[]> usable = new ArrayList<>();
+            if (ranges.isEmpty())
+                return usable;
+            final String partKey;
+            try {
+                partKey = fileKey(part);
+            } catch (final IOException e) {
+                return usable;
+            }
+            for (final Range range : ranges)
+                if (range.part().equals(part.toString()) && range.partKey().equals(partKey) && range.sourceSize() == sourceSize && range.sourceMillis() == sourceMillis)
+                    usable.add(new long[] { range.start(), range.end() });
+            return usable;
+        }
+
+        void done(final ErrorCode result) {
+            live.remove(key);
+            append(record(DONE, key, out -> out.writeUTF(result.name())));
+        }
+
+        private byte[] planned() {
+            return record(PLANNED, key, out -> {
+                out.writeUTF(verb);
+                out.writeUTF(source);
+                out.writeUTF(target);
+                out.writeLong(plannedMillis);
+            });
+        }
+    }
+
+    private final Map<Long, Entry> unfinished = new LinkedHashMap<>(); // guarded by this, left over by the last run and not resumed yet
+    private final Map<Long, Entry> live = new ConcurrentHashMap<>(); // planned by this run and not done
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream(); // guarded by this
+    private final Object flushLock = new Object(); // keeps batches in order on disk
+    private final FileChannel channel; // null if the journal could not be opened, jobs then run unjournaled
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "job-journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    JobJournal() {
+        FileChannel opened = null;
+        try {
+            replay();
+            compact();
+            opened = FileChannel.open(JOURNAL_FILE, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (final IOException | RuntimeException e) {
+            if (Entity.DEBUG)
+                System.out.println("JOB JOURNAL DISABLED: " + e);
+        }
+        channel = opened;
+        flusher.scheduleWithFixedDelay(this::flush, SYNC_MILLIS, SYNC_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    static Path partFile(final Path dest) { // copies are written here and renamed over dest once complete
+        return dest.resolveSibling("." + dest.getFileName() + ".explorer-part");
+    }
+
+    private static String fileKey(final Path file) throws IOException { // device and inode on unix
+        return String.valueOf(Files.readAttributes(file, BasicFileAttributes.class).fileKey());
+    }
+
+    static void publish(final Path part, final Path dest) throws IOException {
+        try {
+            Files.move(part, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final AtomicMoveNotSupportedException e) {
+            Files.move(part, dest, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    Entry plan(final String verb, final String source, final String target) {
+        final Entry entry = new Entry(ThreadLocalRandom.current().nextLong(), verb, source, target, System.currentTimeMillis(), false);
+        live.put(entry.key, entry);
+        append(entry.planned());
+        return entry;
+    }
+
+    synchronized int unfinishedCount() {
+        return unfinished.size();
+    }
+
+    synchronized List<Entry> takeUnfinished() { // each left over entry is handed out once
+        final List<Entry> taken = new ArrayList<>(unfinished.values());
+        unfinished.clear();
+        for (final Entry entry : taken)
+            live.put(entry.key, entry);
+        return taken;
+    }
+
+    void close() { // last flush; a journal with nothing left to resume is removed
+        flusher.shutdown();
+        flush();
+        if (channel == null)
+            return;
+        try {
+            channel.close();
+            synchronized (this) {
+                if (live.isEmpty() && unfinished.isEmpty())
+                    Files.deleteIfExists(JOURNAL_FILE);
+            }
+        } catch (final IOException e) {
+            if (Entity.DEBUG)
+                e.printStackTrace();
+        }
+    }
+
+    private void append(final byte[] record) {
+        synchronized (this) {
+            if (channel != null)
+                pending.writeBytes(record);
+        }
+    }
+
+    private void flush() {
+        synchronized (flushLock) {
+            final byte[] batch;
+            synchronized (this) {
+                if (channel == null || pending.size() == 0)
+                    return;
+                batch = pending.toByteArray();
+                pending.reset();
+            }
+            try {
+                final ByteBuffer buffer = ByteBuffer.wrap(batch);
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+                channel.force(false); // one fsync covers every record of the batch
+            } catch (final IOException e) {
+                if (Entity.DEBUG)
+                    System.out.println("JOB JOURNAL WRITE FAILED: " + e);
+            }
+        }
+    }
+
+    // [length][type, key, fields][crc32c of the payload], a torn or corrupt tail ends the replay
+    private static byte[] record(final byte type, final long key, final Fields fields) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(type);
+            out.writeLong(key);
+            fields.write(out);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e); // in memory, cannot happen
+        }
+        final byte[] payload = bytes.toByteArray();
+        final CRC32C crc = new CRC32C();
+        crc.update(payload);
+        return ByteBuffer.allocate(payload.length + 8).putInt(payload.length).put(payload).putInt((int) crc.getValue()).array();
+    }
+
+    private static byte[] rangeRecord(final long key, final Range range) {
+        return record(RANGE, key, out -> {
+            out.writeUTF(range.part());
+            out.writeUTF(range.partKey());
+            out.writeLong(range.sourceSize());
+            out.writeLong(range.sourceMillis());
+            out.writeLong(range.start());
+            out.writeLong(range.end());
+        });
+    }
+
+    private synchronized void replay() throws IOException {
+        if (!Files.exists(JOURNAL_FILE))
+            return;
+        final ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(JOURNAL_FILE));
+        while (data.remaining() >= 8) {
+            final int length = data.getInt();
+            if (length < 9 || length > data.remaining() - 4)
+                break;
+            final byte[] payload = new byte[length];
+            data.get(payload);
+            final CRC32C crc = new CRC32C();
+            crc.update(payload);
+            if (data.getInt() != (int) crc.getValue())
+                break;
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            final byte type = in.readByte();
+            final long key = in.readLong();
+            final Entry entry = unfinished.get(key);
+            if (type == PLANNED)
+                unfinished.put(key, new Entry(key, in.readUTF(), in.readUTF(), in.readUTF(), in.readLong(), true));
+            else if (entry != null && type == STARTED)
+                entry.started = true;
+            else if (entry != null && type == RANGE)
+                entry.ranges.add(new Range(in.readUTF(), in.readUTF(), in.readLong(), in.readLong(), in.readLong(), in.readLong()));
+            else if (type == DONE)
+                unfinished.remove(key);
+        }
+        if (Entity.DEBUG)
+            System.out.println("JOB JOURNAL HAS " + unfinished.size() + " UNFINISHED JOBS");
+    }
+
+    private synchronized void compact() throws IOException { // rewrites only what is still unfinished, temp file then atomic rename
+        final Path temp = JOURNAL_FILE.resolveSibling(JOURNAL_FILE.getFileName() + ".tmp");
+        try (final FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (final Entry entry : unfinished.values()) {
+                bytes.writeBytes(entry.planned());
+                if (entry.started)
+                    bytes.writeBytes(record(STARTED, entry.key, unused -> {
+                    }));
+                for (final Range range : entry.ranges)
+                    bytes.writeBytes(rangeRecord(entry.key, range));
+            }
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining())
+                out.write(buffer);
+            out.force(false);
+        }
+        try {
+            Files.move(temp, JOURNAL_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final AtomicMoveNotSupportedException e) {
+            Files.move(temp, JOURNAL_FILE, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package core;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+final class JobRegistry { // running jobs plus a bounded history of finished ones, oldest finished evicted first
+    private static final int HISTORY = Integer.getInteger("explorer.jobs.history", 100);
+
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final ConcurrentSkipListMap<Integer, Job> jobs = new ConcurrentSkipListMap<>(); // ordered by id, so by age
+
+    Job register(final String description) {
+        final Job job = new Job(nextId.getAndIncrement(), description);
+        jobs.put(job.id(), job);
+        return job;
+    }
+
+    Job get(final int id) {
+        return jobs.get(id);
+    }
+
+    Collection<Job> all() {
+        return jobs.values();
+    }
+
+    ErrorCode run(final Job job, final Function<Job, ErrorCode> work) { // admission is the io scheduler's, a job here already has its slot
+        ErrorCode result = ErrorCode.UNKOWN_ERROR;
+        job.bind(Thread.currentThread());
+        try {
+            if (!job.cancelledFlag().get())
+                result = work.apply(job);
+        } finally {
+            job.unbind();
+            job.finish(result);
+            evict();
+        }
+        return job.result();
+    }
+
+    private void evict() {
+        int finished = 0;
+        for (final Job job : jobs.values())
+            if (job.isFinished())
+                finished++;
+        final Iterator<Job> oldest = jobs.values().iterator();
+        while (finished > HISTORY && oldest.hasNext())
+            if (oldest.next().isFinished()) {
+                oldest.remove();
+                finished--;
+            }
+    }
+}
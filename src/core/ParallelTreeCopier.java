@@ -0,0 +1,131 @@
+package core;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+final class ParallelTreeCopier { // one fork-join task per directory, idle workers steal subdirectories and file batches
+    private static final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    @FunctionalInterface
+    interface FileCopier {
+        void copy(final Path src, final Path dest) throws IOException;
+    }
+
+    private ParallelTreeCopier() {
+    }
+
+    // stop is checked before every directory and file, a cancelled copy leaves what it finished and nothing half written
+    static ErrorCode copy(final Path source, final Path target, final FileCopier fileCopier, final AtomicBoolean stop) {
+        final ConcurrentLinkedQueue<ErrorCode> errors = new ConcurrentLinkedQueue<>();
+        pool.invoke(new DirectoryTask(source, target, fileCopier, stop, errors));
+        if (stop.get())
+            return ErrorCode.CANCELLED;
+        if (Entity.DEBUG && !errors.isEmpty())
+            System.out.println("TREE COPY OF " + source + " FAILED WITH " + errors);
+        return errors.isEmpty() ? ErrorCode.SUCCESS : errors.peek();
+    }
+
+    static void shutdown() {
+        pool.shutdown();
+    }
+
+    static ErrorCode toErrorCode(final Exception e) {
+        if (e instanceof FileChecksum.MismatchException)
+            return ErrorCode.VERIFY_FAILED;
+        if (e instanceof java.nio.file.NoSuchFileException)
+            return ErrorCode.FILE_NOT_FOUND;
+        if (e instanceof java.nio.file.FileAlreadyExistsException)
+            return ErrorCode.FILE_ALREADY_EXISTS;
+        if (e instanceof java.nio.file.DirectoryNotEmptyException)
+            return ErrorCode.DIR_NOT_EMPTY;
+        if (e instanceof java.io.InterruptedIOException || e instanceof java.nio.channels.ClosedByInterruptException)
+            return ErrorCode.CANCELLED;
+        if (e instanceof UnsupportedOperationException)
+            return ErrorCode.OPERATION_NOT_SUPPORTED;
+        if (e instanceof IOException)
+            return ErrorCode.IO_ERROR;
+        return ErrorCode.UNKOWN_ERROR;
+    }
+
+    private static final class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final transient Path source, target;
+        private final transient FileCopier fileCopier;
+        private final transient AtomicBoolean stop;
+        private final transient ConcurrentLinkedQueue<ErrorCode> errors;
+
+        DirectoryTask(final Path source, final Path target, final FileCopier fileCopier, final AtomicBoolean stop, final ConcurrentLinkedQueue<ErrorCode> errors) {
+            this.source = source;
+            this.target = target;
+            this.fileCopier = fileCopier;
+            this.stop = stop;
+            this.errors = errors;
+        }
+
+        @Override
+        protected void compute() {
+            if (stop.get())
+                return;
+            final List<RecursiveAction> subtasks = new ArrayList<>();
+            final CopyBatcher<Path> batcher = new CopyBatcher<>(unit -> subtasks.add(new FileBatchTask(unit, target, fileCopier, stop, errors)));
+            try {
+                Files.createDirectories(target); // parent exists before any child task is forked
+                try (final DirectoryStream<Path> stream = Files.newDirectoryStream(source)) {
+                    for (final Path child : stream) {
+                        final BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        if (attrs.isDirectory())
+                            subtasks.add(new DirectoryTask(child, target.resolve(child.getFileName().toString()), fileCopier, stop, errors));
+                        else
+                            batcher.add(child, attrs.size());
+                    }
+                }
+            } catch (final IOException | RuntimeException e) {
+                errors.add(toErrorCode(e));
+            }
+            batcher.flush();
+            invokeAll(subtasks);
+        }
+    }
+
+    private static final class FileBatchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final transient List<Path> files;
+        private final transient Path targetDir;
+        private final transient FileCopier fileCopier;
+        private final transient AtomicBoolean stop;
+        private final transient ConcurrentLinkedQueue<ErrorCode> errors;
+
+        FileBatchTask(final List<Path> files, final Path targetDir, final FileCopier fileCopier, final AtomicBoolean stop, final ConcurrentLinkedQueue<ErrorCode> errors) {
+            this.files = files;
+            this.targetDir = targetDir;
+            this.fileCopier = fileCopier;
+            this.stop = stop;
+            this.errors = errors;
+        }
+
+        @Override
+        protected void compute() {
+            for (final Path file : files) {
+                if (stop.get())
+                    return;
+                try {
+                    if (Entity.DEBUG)
+                        System.out.println("COPYING " + file + " TO " + targetDir);
+                    fileCopier.copy(file, targetDir.resolve(file.getFileName().toString()));
+                } catch (final IOException | RuntimeException e) {
+                    errors.add(toErrorCode(e));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package core;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+final class ParallelTreeDeleter { // one fork-join task per directory, files unlinked in batches, a directory goes once its children are gone
+    private static final int FILES_PER_TASK = 256;
+    private static final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    @FunctionalInterface
+    interface Progress {
+        void deleted(final BasicFileAttributes attrs); // called concurrently from pool threads, once per removed file or directory
+    }
+
+    private ParallelTreeDeleter() {
+    }
+
+    // symlinks are removed, never followed; a stopped delete leaves whatever it had not reached yet
+    static ErrorCode delete(final Path root, final AtomicBoolean stop, final Progress progress) {
+        final BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(root, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (final IOException e) {
+            return ParallelTreeCopier.toErrorCode(e);
+        }
+        final ConcurrentLinkedQueue<ErrorCode> errors = new ConcurrentLinkedQueue<>();
+        if (attrs.isDirectory())
+            pool.invoke(new DirectoryTask(root, attrs, stop, progress, errors));
+        else
+            unlink(root, attrs, progress, errors);
+        if (stop.get())
+            return ErrorCode.CANCELLED;
+        if (Entity.DEBUG && !errors.isEmpty())
+            System.out.println("TREE DELETE OF " + root + " FAILED WITH " + errors);
+        return errors.isEmpty() ? ErrorCode.SUCCESS : errors.peek();
+    }
+
+    static void shutdown() {
+        pool.shutdown();
+    }
+
+    private static void unlink(final Path path, final BasicFileAttributes attrs, final Progress progress, final ConcurrentLinkedQueue<ErrorCode> errors) {
+        try {
+            Files.delete(path);
+            progress.deleted(attrs);
+        } catch (final NoSuchFileException e) {
+            // already gone, which is what we wanted
+        } catch (final IOException | RuntimeException e) {
+            errors.add(ParallelTreeCopier.toErrorCode(e));
+        }
+    }
+
+    private static final class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final transient Path dir;
+        private final transient BasicFileAttributes attrs;
+        private final transient AtomicBoolean stop;
+        private final transient Progress progress;
+        private final transient ConcurrentLinkedQueue<ErrorCode> errors;
+
+        DirectoryTask(final Path dir, final BasicFileAttributes attrs, final AtomicBoolean stop, final Progress progress, final ConcurrentLinkedQueue<ErrorCode> errors) {
+            this.dir = dir;
+            this.attrs = attrs;
+            this.stop = stop;
+            this.progress = progress;
+            this.errors = errors;
+        }
+
+        @Override
+        protected void compute() {
+            if (stop.get())
+                return;
+            final List<RecursiveAction> subtasks = new ArrayList<>();
+            List<Path> batch = new ArrayList<>();
+            List<BasicFileAttributes> batchAttrs = new ArrayList<>();
+            try (final DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (final Path child : stream) {
+                    final BasicFileAttributes childAttrs;
+                    try {
+                        childAttrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (final NoSuchFileException e) {
+                        continue;
+                    }
+                    if (childAttrs.isDirectory())
+                        subtasks.add(new DirectoryTask(child, childAttrs, stop, progress, errors));
+                    else {
+                        batch.add(child);
+                        batchAttrs.add(childAttrs);
+                        if (batch.size() == FILES_PER_TASK) {
+                            subtasks.add(new FileBatchTask(batch, batchAttrs, stop, progress, errors));
+                            batch = new ArrayList<>();
+                            batchAttrs = new ArrayList<>();
+                        }
+                    }
+                }
+            } catch (final IOException | RuntimeException e) {
+                errors.add(ParallelTreeCopier.toErrorCode(e));
+            }
+            if (!batch.isEmpty())
+                subtasks.add(new FileBatchTask(batch, batchAttrs, stop, progress, errors));
+            invokeAll(subtasks);
+            if (!stop.get())
+                unlink(dir, attrs, progress, errors); // bottom-up, fails with DIR_NOT_EMPTY if anything below could not go
+        }
+    }
+
+    private static final class FileBatchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final transient List<Path> files;
+        private final transient List<BasicFileAttributes> attrs;
+        private final transient AtomicBoolean stop;
+        private final transient Progress progress;
+        private final transient ConcurrentLinkedQueue<ErrorCode> errors;
+
+        FileBatchTask(final List<Path> files, final List<BasicFileAttributes> attrs, final AtomicBoolean stop, final Progress progress, final ConcurrentLinkedQueue<ErrorCode> errors) {
+            this.files = files;
+            this.attrs = attrs;
+            this.stop = stop;
+            this.progress = progress;
+            this.errors = errors;
+        }
+
+        @Override
+        protected void compute() {
+            for (int i = 0; i < files.size(); i++) {
+                if (stop.get())
+                    return;
+                unlink(files.get(i), attrs.get(i), progress, errors);
+            }
+        }
+    }
+}
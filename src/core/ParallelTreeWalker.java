@@ -0,0 +1,96 @@
+package core;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+final class ParallelTreeWalker { // read-only subtree walk, one fork-join task per directory on a work-stealing pool
+    @FunctionalInterface
+    interface Visitor {
+        void visit(final Path path, final BasicFileAttributes attrs, final int depth); // called concurrently from pool threads
+    }
+
+    private static final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    private ParallelTreeWalker() {
+    }
+
+    // symlinks are reported but never followed, hidden entries are skipped (and not descended into) unless SHOW_HIDDEN
+    static void walk(final Path root, final int maxDepth, final ListOption opt, final AtomicBoolean stop, final Visitor visitor) {
+        pool.invoke(new DirectoryTask(root, 1, maxDepth, opt, stop, visitor));
+    }
+
+    static void invokeAll(final List<? extends ForkJoinTask<?>> tasks) { // runs other read-only walks on the same pool
+        pool.submit(() -> ForkJoinTask.invokeAll(tasks)).join();
+    }
+
+    static void execute(final Runnable task) { // a read-only walk nobody waits for, such as counting a job's totals
+        pool.execute(task);
+    }
+
+    static DirEntry.Kind kindOf(final BasicFileAttributes attrs) {
+        return attrs.isDirectory() ? DirEntry.Kind.DIRECTORY : attrs.isRegularFile() ? DirEntry.Kind.FILE : DirEntry.Kind.OTHER;
+    }
+
+    static void shutdown() {
+        pool.shutdown();
+    }
+
+    private static final class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final transient Path dir;
+        private final int depth, maxDepth;
+        private final ListOption opt;
+        private final transient AtomicBoolean stop;
+        private final transient Visitor visitor;
+
+        DirectoryTask(final Path dir, final int depth, final int maxDepth, final ListOption opt, final AtomicBoolean stop, final Visitor visitor) {
+            this.dir = dir;
+            this.depth = depth;
+            this.maxDepth = maxDepth;
+            this.opt = opt;
+            this.stop = stop;
+            this.visitor = visitor;
+        }
+
+        @Override
+        protected void compute() {
+            final List<DirectoryTask> subtasks = new ArrayList<>();
+            try (final DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (final Path child : stream) {
+                    if (stop.get())
+                        break;
+                    if (opt != ListOption.SHOW_HIDDEN && Files.isHidden(child))
+                        continue;
+                    final BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (final java.nio.file.NoSuchFileException e) {
+                        continue; // deleted while we were walking
+                    }
+                    visitor.visit(child, attrs, depth);
+                    if (attrs.isDirectory() && depth < maxDepth) {
+                        final DirectoryTask subtask = new DirectoryTask(child, depth + 1, maxDepth, opt, stop, visitor);
+                        subtask.fork(); // idle workers steal it while we keep listing
+                        subtasks.add(subtask);
+                    }
+                }
+            } catch (final IOException | DirectoryIteratorException e) {
+                if (Entity.DEBUG)
+                    System.out.println("CANNOT WALK " + dir + ": " + e);
+            }
+            for (final DirectoryTask subtask : subtasks)
+                subtask.join();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package core;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+final class PathLockManager { // hierarchical shared/exclusive path locks, ancestors carry intent locks
+    enum Mode {
+        INTENT_SHARED, INTENT_EXCLUSIVE, SHARED, EXCLUSIVE;
+
+        private static final boolean[][] COMPATIBLE = {
+                // IS, IX, S, X
+                { true, true, true, false }, // IS
+                { true, true, false, false }, // IX
+                { true, false, true, false }, // S
+                { false, false, false, false } // X
+        };
+
+        boolean isCompatibleWith(final Mode other) {
+            return COMPATIBLE[ordinal()][other.ordinal()];
+        }
+
+        Mode intent() {
+            return this == SHARED || this == INTENT_SHARED ? INTENT_SHARED : INTENT_EXCLUSIVE;
+        }
+
+        Mode combine(final Mode other) {
+            if (this == other)
+                return this;
+            if (this == EXCLUSIVE || other == EXCLUSIVE)
+                return EXCLUSIVE;
+            if (this == INTENT_SHARED)
+                return other;
+            if (other == INTENT_SHARED)
+                return this;
+            return EXCLUSIVE; // SHARED + INTENT_EXCLUSIVE, no SIX mode so round up
+        }
+    }
+
+    private static final class Node {
+        private int pins; // only touched inside ConcurrentHashMap.compute, which serializes per key
+        private final int[] granted = new int[Mode.values().length];
+        private final ReentrantLock lock = new ReentrantLock(); // not a monitor, so a contended virtual thread never pins its carrier
+
+        boolean tryGrant(final Mode mode) {
+            lock.lock();
+            try {
+                for (final Mode held : Mode.values())
+                    if (granted[held.ordinal()] > 0 && !mode.isCompatibleWith(held))
+                        return false;
+                granted[mode.ordinal()]++;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release(final Mode mode) {
+            lock.lock();
+            try {
+                granted[mode.ordinal()]--;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    static final class Lease implements AutoCloseable {
+        private final String[] paths;
+        private final Mode[] modes;
+        private final Node[] nodes;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Lease(final String[] paths, final Mode[] modes, final Node[] nodes) {
+            this.paths = paths;
+            this.modes = modes;
+            this.nodes = nodes;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true))
+                release(paths, modes, nodes, nodes.length);
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Node> nodes = new ConcurrentHashMap<>();
+
+    private PathLockManager() {
+    }
+
+    static Lease tryAcquireShared(final String... pathsAndNames) {
+        return tryAcquire(pathsAndNames, new String[0]);
+    }
+
+    static Lease tryAcquireExclusive(final String... pathsAndNames) {
+        return tryAcquire(new String[0], pathsAndNames);
+    }
+
+    // all-or-nothing, returns null if any path (or an ancestor/descendant of one) is held in a conflicting mode
+    static Lease tryAcquire(final String[] sharedPaths, final String[] exclusivePaths) {
+        final TreeMap<String, Mode> plan = new TreeMap<>(); // ancestors sort before descendants, giving one global order
+        for (final String path : sharedPaths)
+            addToPlan(plan, path, Mode.SHARED);
+        for (final String path : exclusivePaths)
+            addToPlan(plan, path, Mode.EXCLUSIVE);
+        final String[] paths = new String[plan.size()];
+        final Mode[] modes = new Mode[plan.size()];
+        final Node[] granted = new Node[plan.size()];
+        int i = 0;
+        for (final Map.Entry<String, Mode> entry : plan.entrySet()) {
+            paths[i] = entry.getKey();
+            modes[i++] = entry.getValue();
+        }
+        for (i = 0; i < paths.length; i++) {
+            final Node node = pin(paths[i]);
+            if (!node.tryGrant(modes[i])) {
+                unpin(paths[i]);
+                release(paths, modes, granted, i);
+                if (Entity.DEBUG)
+                    System.out.println("COULD NOT LOCK " + paths[i] + " AS " + modes[i]);
+                return null;
+            }
+            granted[i] = node;
+            if (Entity.DEBUG)
+                System.out.println("LOCKED " + paths[i] + " AS " + modes[i]);
+        }
+        return new Lease(paths, modes, granted);
+    }
+
+    static String canonicalize(final String pathAndName) {
+        return Paths.get(pathAndName).toAbsolutePath().normalize().toString();
+    }
+
+    private static void addToPlan(final TreeMap<String, Mode> plan, final String pathAndName, final Mode mode) {
+        final Path path = Paths.get(canonicalize(pathAndName));
+        plan.merge(path.toString(), mode, Mode::combine);
+        for (Path ancestor = path.getParent(); ancestor != null; ancestor = ancestor.getParent())
+            plan.merge(ancestor.toString(), mode.intent(), Mode::combine);
+    }
+
+    private static void release(final String[] paths, final Mode[] modes, final Node[] granted, final int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            granted[i].release(modes[i]);
+            unpin(paths[i]);
+            if (Entity.DEBUG)
+                System.out.println("UNLOCKED " + paths[i]);
+        }
+    }
+
+    private static Node pin(final String path) {
+        return nodes.compute(path, (key, node) -> {
+            final Node pinned = node == null ? new Node() : node;
+            pinned.pins++;
+            return pinned;
+        });
+    }
+
+    private static void unpin(final String path) {
+        nodes.computeIfPresent(path, (key, node) -> --node.pins == 0 ? null : node); // idle entries are dropped from the map
+    }
+}
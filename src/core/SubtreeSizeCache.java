@@ -0,0 +1,178 @@
+package core;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+final class SubtreeSizeCache { // du totals per directory, dropped along the whole ancestor chain when we mutate under it
+    private record Total(long bytes, long files, long computedAt, boolean complete) {
+    }
+
+    private static final long TTL_MILLIS = Long.getLong("explorer.du.ttlMillis", 60_000); // bounds staleness from changes made outside the explorer
+    private static final ConcurrentHashMap<Path, Total> totals = new ConcurrentHashMap<>();
+    private static final AtomicLong epoch = new AtomicLong(); // bumped by every invalidation, a walk that raced one does not cache
+
+    private SubtreeSizeCache() {
+    }
+
+    static DiskUsage du(final Path dir, final ListOption opt) throws IOException {
+        final long startEpoch = epoch.get();
+        final List<DirEntry> children = new ArrayList<>();
+        long bytes = 0, files = 0;
+        boolean complete = true;
+        final List<DirectoryTask> subtasks = new ArrayList<>();
+        final List<DirEntry> pending = new ArrayList<>();
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (final Path child : stream) {
+                final BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (final NoSuchFileException e) {
+                    continue;
+                }
+                final boolean hidden = Files.isHidden(child);
+                final DirEntry entry = new DirEntry(child.getFileName().toString(), ParallelTreeWalker.kindOf(attrs), attrs.size(), attrs.lastModifiedTime().toMillis(), hidden);
+                if (attrs.isDirectory()) {
+                    subtasks.add(new DirectoryTask(child, startEpoch));
+                    pending.add(entry);
+                    continue;
+                }
+                bytes += attrs.size();
+                files++;
+                if (opt == ListOption.SHOW_HIDDEN || !hidden)
+                    children.add(entry);
+            }
+        } catch (final DirectoryIteratorException e) {
+            throw e.getCause();
+        }
+        ParallelTreeWalker.invokeAll(subtasks);
+        for (int i = 0; i < subtasks.size(); i++) {
+            final Total total = subtasks.get(i).join();
+            final DirEntry entry = pending.get(i);
+            bytes += total.bytes;
+            files += total.files;
+            complete &= total.complete;
+            if (opt == ListOption.SHOW_HIDDEN || !entry.hidden())
+                children.add(new DirEntry(entry.name(), entry.kind(), total.bytes, entry.lastModifiedMillis(), entry.hidden()));
+        }
+        store(dir, new Total(bytes, files, System.currentTimeMillis(), complete), startEpoch);
+        children.sort(Comparator.comparingLong(DirEntry::size).reversed().thenComparing(DirEntry::name));
+        return new DiskUsage(bytes, files, List.copyOf(children));
+    }
+
+    static void invalidate(final String... pathsAndNames) { // the path, everything cached under it and every ancestor
+        epoch.incrementAndGet(); // before removing, so a walk storing concurrently notices and backs its entry out
+        for (final String pathAndName : pathsAndNames) {
+            final Path path = Paths.get(pathAndName).toAbsolutePath().normalize();
+            totals.keySet().removeIf(dir -> dir.startsWith(path));
+            for (Path ancestor = path.getParent(); ancestor != null; ancestor = ancestor.getParent())
+                if (totals.remove(ancestor) != null && Entity.DEBUG)
+                    System.out.println("INVALIDATED SUBTREE TOTAL OF " + ancestor);
+        }
+    }
+
+    static long cachedBytes(final Path dir) { // -1 when no fresh total is cached
+        final Total total = cached(dir.toAbsolutePath().normalize());
+        return total == null ? -1 : total.bytes;
+    }
+
+    // a tree job's totals, at once when du knows the tree, else counted on the walker pool while the job is already running
+    static void sizeInBackground(final Path dir, final Job job) {
+        final Path normalized = dir.toAbsolutePath().normalize();
+        final Total hit = cached(normalized);
+        if (hit != null) {
+            job.sized(hit.bytes, hit.files);
+            return;
+        }
+        final long startEpoch = epoch.get();
+        try {
+            ParallelTreeWalker.execute(() -> {
+                final Total total = new DirectoryTask(normalized, startEpoch).invoke();
+                if (total.complete) // a tree that changed under the count, as rm -r does, keeps showing no total
+                    job.sized(total.bytes, total.files);
+            });
+        } catch (final RejectedExecutionException e) {
+            // shutting down, the job just runs without totals
+        }
+    }
+
+    private static Total cached(final Path dir) {
+        final Total total = totals.get(dir);
+        return total != null && System.currentTimeMillis() - total.computedAt < TTL_MILLIS ? total : null;
+    }
+
+    private static void store(final Path dir, final Total total, final long startEpoch) {
+        if (!total.complete || epoch.get() != startEpoch)
+            return;
+        totals.put(dir, total);
+        if (epoch.get() != startEpoch)
+            totals.remove(dir, total);
+    }
+
+    private static final class DirectoryTask extends RecursiveTask<Total> {
+        private static final long serialVersionUID = 1L;
+        private final transient Path dir;
+        private final long startEpoch;
+
+        DirectoryTask(final Path dir, final long startEpoch) {
+            this.dir = dir;
+            this.startEpoch = startEpoch;
+        }
+
+        @Override
+        protected Total compute() {
+            final Total hit = cached(dir);
+            if (hit != null)
+                return hit;
+            long bytes = 0, files = 0;
+            final List<DirectoryTask> subtasks = new ArrayList<>();
+            try (final DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (final Path child : stream) {
+                    final BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS); // symlinks count as themselves
+                    } catch (final NoSuchFileException e) {
+                        continue;
+                    }
+                    if (attrs.isDirectory()) {
+                        final DirectoryTask subtask = new DirectoryTask(child, startEpoch);
+                        subtask.fork();
+                        subtasks.add(subtask);
+                    } else {
+                        bytes += attrs.size();
+                        files++;
+                    }
+                }
+            } catch (final IOException | DirectoryIteratorException e) {
+                if (Entity.DEBUG)
+                    System.out.println("CANNOT SIZE " + dir + ": " + e);
+                for (final DirectoryTask subtask : subtasks)
+                    subtask.join();
+                return new Total(0, 0, 0, false); // unreadable, counted as empty and never cached, nor is any ancestor
+            }
+            boolean complete = true;
+            for (final DirectoryTask subtask : subtasks) {
+                final Total total = subtask.join();
+                bytes += total.bytes;
+                files += total.files;
+                complete &= total.complete;
+            }
+            final Total total = new Total(bytes, files, System.currentTimeMillis(), complete);
+            store(dir, total, startEpoch);
+            return total;
+        }
+    }
+}
@@ -0,0 +1,440 @@
+package core;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+final class ZipArchiver { // zip containers whose entries are deflated in independent blocks across the executor, pigz style
+    private static final int BLOCK = Integer.getInteger("explorer.pack.blockSize", 1024 * 1024);
+    private static final int LEVEL = Integer.getInteger("explorer.pack.level", Deflater.DEFAULT_COMPRESSION);
+    private static final int IN_FLIGHT = Integer.getInteger("explorer.pack.buffers", 4 * Runtime.getRuntime().availableProcessors()); // blocks read but not yet written, each holds about two BLOCKs
+    private static final int WINDOW = 32 * 1024; // a block is primed with the tail of the one before it, so splitting costs almost no ratio
+    private static final int HELPERS = Runtime.getRuntime().availableProcessors() - 1; // the writer deflates too whenever it would otherwise wait
+    private static final int BUFFER = 256 * 1024;
+    private static final long ZIP64 = 0xFFFFFFFFL; // a 32-bit size or offset field holding this means the real value is in the zip64 extra
+    private static final long ZIP64_SIZE = 0xF0000000L; // files this big get zip64 local headers, deflate can grow incompressible input a little
+    private static final int UTF8 = 0x0800, DESCRIPTOR = 0x0008;
+
+    private ZipArchiver() {
+    }
+
+    private record Member(Path file, byte[] name, BasicFileAttributes attrs) {
+    }
+
+    private record Block(byte[] data, int offset, int length, byte[] deflated, int deflatedLength, boolean last) {
+    }
+
+    private record Central(byte[] name, long modified, long crc, long compressedSize, long size, long offset, boolean directory) {
+    }
+
+    // a single writer thread emits the blocks in order, so the archive is written front to back like any other copy
+    static void pack(final Path source, final Path archive, final ExecutorService executorService, final Job job) throws IOException {
+        final List<Member> members = members(source);
+        long total = 0, files = 0;
+        for (final Member member : members)
+            if (member.attrs().isRegularFile()) {
+                total += member.attrs().size();
+                files++;
+            }
+        job.running(total, files);
+        if (Entity.DEBUG)
+            System.out.println("PACKING " + files + " FILES FROM " + source + " INTO " + archive);
+        final Path part = JobJournal.partFile(archive);
+        final ArrayDeque<FutureTask<Block>> inFlight = new ArrayDeque<>();
+        final ConcurrentLinkedQueue<FutureTask<Block>> pending = new ConcurrentLinkedQueue<>(); // not yet claimed by a helper, the pool's own queue would pin finished blocks
+        final AtomicInteger helpers = new AtomicInteger();
+        final Runnable helper = () -> {
+            FutureTask<Block> task;
+            while ((task = pending.poll()) != null)
+                task.run();
+            helpers.decrementAndGet(); // a block queued after the last poll is still run by the writer
+        };
+        try (final Writer out = new Writer(Files.newOutputStream(part))) {
+            final int[] cursor = new int[1]; // next member to split into blocks
+            final long[] cursorOffset = new long[1];
+            for (final Member member : members) {
+                job.checkCancelled();
+                if (!member.attrs().isRegularFile()) {
+                    out.directory(member);
+                    continue;
+                }
+                final long offset = out.position();
+                final boolean zip64 = member.attrs().size() >= ZIP64_SIZE;
+                out.localHeader(member, zip64);
+                final CRC32 crc = new CRC32();
+                long compressedSize = 0, size = 0;
+                Block block;
+                do {
+                    fill(members, cursor, cursorOffset, inFlight, pending);
+                    while (helpers.get() < Math.min(HELPERS, pending.size()))
+                        try {
+                            helpers.incrementAndGet();
+                            executorService.execute(helper);
+                        } catch (final RejectedExecutionException e) {
+                            helpers.decrementAndGet();
+                            break;
+                        }
+                    final FutureTask<Block> head = inFlight.poll();
+                    pending.remove(head);
+                    head.run(); // no-op if a helper already has it, a busy pool never stalls the writer
+                    block = get(head);
+                    out.write(block.deflated(), block.deflatedLength());
+                    crc.update(block.data(), block.offset(), block.length());
+                    compressedSize += block.deflatedLength();
+                    size += block.length();
+                    job.addBytes(block.length());
+                    job.checkCancelled();
+                } while (!block.last());
+                out.descriptor(crc.getValue(), compressedSize, size, zip64);
+                out.central(new Central(member.name(), member.attrs().lastModifiedTime().toMillis(), crc.getValue(), compressedSize, size, offset, false));
+                job.fileDone();
+            }
+            out.end();
+        } catch (final IOException | RuntimeException e) {
+            pending.clear();
+            for (final FutureTask<Block> task : inFlight)
+                task.cancel(false);
+            Files.deleteIfExists(part);
+            throw e;
+        }
+        JobJournal.publish(part, archive);
+    }
+
+    // keeps up to IN_FLIGHT blocks queued, walking on into the next files while the writer is still on this one
+    private static void fill(final List<Member> members, final int[] cursor, final long[] cursorOffset, final ArrayDeque<FutureTask<Block>> inFlight, final ConcurrentLinkedQueue<FutureTask<Block>> pending) {
+        while (inFlight.size() < IN_FLIGHT && cursor[0] < members.size()) {
+            final Member member = members.get(cursor[0]);
+            if (!member.attrs().isRegularFile()) {
+                cursor[0]++;
+                continue;
+            }
+            final long start = cursorOffset[0];
+            final int length = (int) Math.min(BLOCK, member.attrs().size() - start);
+            final boolean last = start + length >= member.attrs().size();
+            final FutureTask<Block> task = new FutureTask<>(() -> deflate(member.file(), start, length, last));
+            inFlight.add(task);
+            pending.add(task);
+            if (last) {
+                cursor[0]++;
+                cursorOffset[0] = 0;
+            } else
+                cursorOffset[0] += length;
+        }
+    }
+
+    private static Block get(final FutureTask<Block> task) throws IOException {
+        try {
+            return task.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while packing");
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    // non-final blocks end on a sync flush, so the deflated blocks concatenate into one valid stream
+    private static Block deflate(final Path file, final long start, final int length, final boolean last) throws IOException {
+        final int window = (int) Math.min(WINDOW, start);
+        final ByteBuffer data = ByteBuffer.allocate(window + length);
+        try (final FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (data.hasRemaining() && in.read(data, start - window + data.position()) > 0)
+                ;
+        }
+        final int dictionary = Math.min(window, data.position()), read = data.position() - dictionary; // short if the file shrank, the CRC then says so on unpack
+        final Deflater deflater = new Deflater(LEVEL, true);
+        try {
+            if (dictionary > 0)
+                deflater.setDictionary(data.array(), 0, dictionary);
+            deflater.setInput(data.array(), dictionary, read);
+            if (last)
+                deflater.finish();
+            byte[] deflated = new byte[read + read / 8 + 64];
+            int written = 0;
+            while (true) {
+                written += deflater.deflate(deflated, written, deflated.length - written, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                if (last ? deflater.finished() : written < deflated.length)
+                    break;
+                deflated = Arrays.copyOf(deflated, 2 * deflated.length);
+            }
+            return new Block(data.array(), dictionary, read, deflated, written, last);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static List<Member> members(final Path source) throws IOException { // directories before their contents, symlinks and special files left out
+        final List<Member> members = new ArrayList<>();
+        final Path base = source.toAbsolutePath().normalize().getParent();
+        Files.walkFileTree(source.toAbsolutePath().normalize(), new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+                members.add(new Member(dir, (base.relativize(dir).toString() + '/').getBytes(StandardCharsets.UTF_8), attrs));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                if (attrs.isRegularFile())
+                    members.add(new Member(file, base.relativize(file).toString().getBytes(StandardCharsets.UTF_8), attrs));
+                else if (Entity.DEBUG)
+                    System.out.println("NOT PACKING " + file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return members;
+    }
+
+    private static final class Writer implements AutoCloseable {
+        private final OutputStream out;
+        private final List<Central> entries = new ArrayList<>();
+        private long position;
+
+        Writer(final OutputStream out) {
+            this.out = new BufferedOutputStream(out, BUFFER);
+        }
+
+        long position() {
+            return position;
+        }
+
+        void write(final byte[] bytes, final int length) throws IOException {
+            out.write(bytes, 0, length);
+            position += length;
+        }
+
+        private void write(final ByteBuffer record) throws IOException {
+            write(record.array(), record.position());
+        }
+
+        private static ByteBuffer record(final int capacity) {
+            return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        void directory(final Member member) throws IOException { // stored, empty, no descriptor
+            final long offset = position;
+            final byte[] timestamp = timestamp(member.attrs().lastModifiedTime().toMillis());
+            final ByteBuffer header = record(30 + member.name().length + timestamp.length);
+            header.putInt(0x04034b50).putShort((short) 20).putShort((short) UTF8).putShort((short) 0).putInt(dosTime(member.attrs().lastModifiedTime().toMillis()));
+            header.putInt(0).putInt(0).putInt(0).putShort((short) member.name().length).putShort((short) timestamp.length).put(member.name()).put(timestamp);
+            write(header);
+            central(new Central(member.name(), member.attrs().lastModifiedTime().toMillis(), 0, 0, 0, offset, true));
+        }
+
+        void localHeader(final Member member, final boolean zip64) throws IOException { // crc and sizes come after the data, in the descriptor
+            final long modified = member.attrs().lastModifiedTime().toMillis();
+            final byte[] timestamp = timestamp(modified);
+            final int extra = timestamp.length + (zip64 ? 20 : 0);
+            final ByteBuffer header = record(30 + member.name().length + extra);
+            header.putInt(0x04034b50).putShort((short) (zip64 ? 45 : 20)).putShort((short) (UTF8 | DESCRIPTOR)).putShort((short) 8).putInt(dosTime(modified));
+            header.putInt(0).putInt(zip64 ? -1 : 0).putInt(zip64 ? -1 : 0).putShort((short) member.name().length).putShort((short) extra).put(member.name()).put(timestamp);
+            if (zip64)
+                header.putShort((short) 1).putShort((short) 16).putLong(0).putLong(0);
+            write(header);
+        }
+
+        void descriptor(final long crc, final long compressedSize, final long size, final boolean zip64) throws IOException {
+            final ByteBuffer descriptor = record(zip64 ? 24 : 16);
+            descriptor.putInt(0x08074b50).putInt((int) crc);
+            if (zip64)
+                descriptor.putLong(compressedSize).putLong(size);
+            else
+                descriptor.putInt((int) compressedSize).putInt((int) size);
+            write(descriptor);
+        }
+
+        void central(final Central entry) {
+            entries.add(entry);
+        }
+
+        void end() throws IOException {
+            final long start = position;
+            for (final Central entry : entries) {
+                final boolean bigSize = entry.size() >= ZIP64, bigCompressed = entry.compressedSize() >= ZIP64, bigOffset = entry.offset() >= ZIP64;
+                final int zip64 = (bigSize ? 8 : 0) + (bigCompressed ? 8 : 0) + (bigOffset ? 8 : 0);
+                final byte[] timestamp = timestamp(entry.modified());
+                final int extra = timestamp.length + (zip64 > 0 ? 4 + zip64 : 0);
+                final ByteBuffer header = record(46 + entry.name().length + extra);
+                header.putInt(0x02014b50).putShort((short) 45).putShort((short) (zip64 > 0 ? 45 : 20)).putShort((short) (entry.directory() ? UTF8 : UTF8 | DESCRIPTOR));
+                header.putShort((short) (entry.directory() ? 0 : 8)).putInt(dosTime(entry.modified())).putInt((int) entry.crc());
+                header.putInt(bigCompressed ? -1 : (int) entry.compressedSize()).putInt(bigSize ? -1 : (int) entry.size());
+                header.putShort((short) entry.name().length).putShort((short) extra).putShort((short) 0).putShort((short) 0).putShort((short) 0);
+                header.putInt(entry.directory() ? 0x10 : 0).putInt(bigOffset ? -1 : (int) entry.offset()).put(entry.name()).put(timestamp);
+                if (zip64 > 0) {
+                    header.putShort((short) 1).putShort((short) zip64);
+                    if (bigSize)
+                        header.putLong(entry.size());
+                    if (bigCompressed)
+                        header.putLong(entry.compressedSize());
+                    if (bigOffset)
+                        header.putLong(entry.offset());
+                }
+                write(header);
+            }
+            final long size = position - start, count = entries.size();
+            if (count >= 0xFFFF || start >= ZIP64 || size >= ZIP64) { // zip64 end record and its locator
+                final long end64 = position;
+                final ByteBuffer record = record(56 + 20);
+                record.putInt(0x06064b50).putLong(44).putShort((short) 45).putShort((short) 45).putInt(0).putInt(0).putLong(count).putLong(count).putLong(size).putLong(start);
+                record.putInt(0x07064b50).putInt(0).putLong(end64).putInt(1);
+                write(record);
+            }
+            final ByteBuffer record = record(22);
+            record.putInt(0x06054b50).putShort((short) 0).putShort((short) 0);
+            record.putShort((short) Math.min(count, 0xFFFF)).putShort((short) Math.min(count, 0xFFFF)).putInt((int) Math.min(size, ZIP64)).putInt((int) Math.min(start, ZIP64)).putShort((short) 0);
+            write(record);
+        }
+
+        private static byte[] timestamp(final long millis) { // extended timestamp extra, DOS times only have two second resolution
+            final long seconds = Math.floorDiv(millis, 1000);
+            if (seconds < 0 || seconds > Integer.MAX_VALUE)
+                return new byte[0];
+            return record(9).putShort((short) 0x5455).putShort((short) 5).put((byte) 1).putInt((int) seconds).array();
+        }
+
+        private static int dosTime(final long millis) {
+            LocalDateTime time = LocalDateTime.ofInstant(java.time.Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+            if (time.getYear() < 1980)
+                time = LocalDateTime.of(1980, 1, 1, 0, 0);
+            return (time.getYear() - 1980) << 25 | time.getMonthValue() << 21 | time.getDayOfMonth() << 16 | time.getHour() << 11 | time.getMinute() << 5 | time.getSecond() >> 1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    // first path component of every entry, null if any entry would land outside the target
+    static Set<String> roots(final Path archive) throws IOException {
+        final Set<String> roots = new LinkedHashSet<>();
+        try (final ZipFile zip = new ZipFile(archive.toFile())) {
+            for (final Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements();) {
+                final String name = entries.nextElement().getName();
+                if (name.startsWith("/") || name.contains("\\") || Arrays.asList(name.split("/")).contains(".."))
+                    return null;
+                roots.add(name.split("/")[0]);
+            }
+        }
+        return roots;
+    }
+
+    // directories are made up front, then files are inflated concurrently, each into a part file renamed once whole
+    static void unpack(final Path archive, final Path target, final ExecutorService executorService, final Job job) throws IOException {
+        try (final ZipFile zip = new ZipFile(archive.toFile())) {
+            final List<ZipEntry> files = new ArrayList<>();
+            final List<ZipEntry> directories = new ArrayList<>();
+            long total = 0;
+            for (final Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements();) {
+                final ZipEntry entry = entries.nextElement();
+                final Path path = target.resolve(entry.getName()).normalize();
+                if (!path.startsWith(target.normalize()))
+                    throw new IOException("Entry outside the target: " + entry.getName());
+                Files.createDirectories(entry.isDirectory() ? path : path.getParent());
+                if (entry.isDirectory())
+                    directories.add(entry);
+                else {
+                    files.add(entry);
+                    total += Math.max(0, entry.getSize());
+                }
+            }
+            job.running(total, files.size());
+            if (Entity.DEBUG)
+                System.out.println("UNPACKING " + files.size() + " FILES FROM " + archive + " INTO " + target);
+            final AtomicInteger next = new AtomicInteger();
+            final CountDownLatch remaining = new CountDownLatch(files.size());
+            final AtomicReference<IOException> failure = new AtomicReference<>();
+            final Runnable worker = () -> {
+                int index;
+                while ((index = next.getAndIncrement()) < files.size())
+                    try {
+                        if (failure.get() == null)
+                            inflate(zip, files.get(index), target.resolve(files.get(index).getName()), job);
+                    } catch (final IOException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        remaining.countDown();
+                    }
+            };
+            final int helpers = Math.min(files.size(), Runtime.getRuntime().availableProcessors()) - 1;
+            try {
+                for (int i = 0; i < helpers; i++)
+                    executorService.execute(worker);
+            } catch (final RejectedExecutionException e) {
+                if (Entity.DEBUG)
+                    System.out.println("NO HELPERS AVAILABLE, UNPACKING " + archive + " ON CALLER THREAD");
+            }
+            worker.run();
+            try {
+                remaining.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while unpacking " + archive);
+            }
+            if (failure.get() != null)
+                throw failure.get();
+            for (final ZipEntry directory : directories) // last, writing the files touched them
+                Files.setLastModifiedTime(target.resolve(directory.getName()), directory.getLastModifiedTime());
+        }
+    }
+
+    private static void inflate(final ZipFile zip, final ZipEntry entry, final Path dest, final Job job) throws IOException {
+        final Path part = JobJournal.partFile(dest);
+        final CRC32 crc = new CRC32();
+        try (final InputStream in = zip.getInputStream(entry); final OutputStream out = Files.newOutputStream(part)) {
+            final byte[] buffer = new byte[BUFFER];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                job.checkCancelled();
+                out.write(buffer, 0, read);
+                crc.update(buffer, 0, read);
+                job.addBytes(read);
+            }
+        } catch (final IOException e) {
+            Files.deleteIfExists(part);
+            throw e;
+        }
+        if (crc.getValue() != entry.getCrc()) {
+            Files.deleteIfExists(part);
+            throw new FileChecksum.MismatchException(dest);
+        }
+        JobJournal.publish(part, dest);
+        Files.setLastModifiedTime(dest, entry.getLastModifiedTime());
+        job.fileDone();
+    }
+}
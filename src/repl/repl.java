@@ -1,38 +1,212 @@
 package repl; // Read-Evaluate-Print Loop
 
 import core.*;
+import java.io.UncheckedIOException;
+import java.nio.file.NoSuchFileException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.PatternSyntaxException;
 
 final class repl {
     private static void showHelp() {
         System.out.println("Options:");
         System.out.println("[pwd] Print Working Directory");
         System.out.println("[cd] Change Directory");
-        System.out.println("[find] Search Directory (Add -h to search among hidden files too)");
+        System.out.println("[find] Search Directory (Add -h to search among hidden files too, -r [-d depth] [-t f|d] [-n hits] to search subfolders)");
+        System.out.println("[grep] Search file contents under this folder (Add -h to search hidden files too, -n hits to stop early)");
         System.out.println("[prop] File Properties");
         System.out.println("[open] Open File");
-        System.out.println("[ls] List (Add -h to list hidden files too)");
+        System.out.println("[ls] List (Add -h to list hidden files too, -l for size and modification time, -u for unsorted streaming)");
+        System.out.println("[du] Disk usage of this folder and each child (Add -h to include hidden children)");
+        System.out.println("[dupes] Find identical files under this folder (Add -h to include hidden files)");
         System.out.println("[touch] Create File");
         System.out.println("[mkdir] Create Folder");
-        System.out.println("[cp] copy File/Folder (Destination, names)");
+        System.out.println("[cp] copy File/Folder (Destination, names; -v reads each copy back against a checksum, -m records it in .explorer-manifest)");
+        System.out.println("[verify] Re-check every copy listed in a .explorer-manifest under this folder");
+        System.out.println("[sync] copy only what changed: skips files with the same size and mtime, rebuilds big ones from their unchanged blocks (-Dexplorer.sync.inPlace=true patches them in place)");
+        System.out.println("[pack] Compress a File/Folder into a zip archive (name, archive)");
+        System.out.println("[unpack] Extract a zip archive (archive, optional destination)");
+        System.out.println("[resume] Finish cp/mv/sync jobs that were cut off when the explorer last stopped");
         System.out.println("[slowcp] non multithreaded copy(for demo purposes)");
         System.out.println("[mv] move File/Folder");
-        System.out.println("[iostat] see progress of concurrent cp/mv jobs");
+        System.out.println("[iostat] see progress of concurrent cp/mv/rm -r jobs (Add -w to refresh every second until they finish)");
+        System.out.println("[cancel] Cancel a running cp/mv/rm -r job by its iostat id");
+        System.out.println("[index] Build filename index of this folder for find -r (index status to inspect)");
         System.out.println("[rename] Rename File/Folder");
-        System.out.println("[rm] Delete File/Folder");
+        System.out.println("[rm] Delete File/Folder (Add -r to delete folders with everything in them)");
         System.out.println("[clear] Clears screen");
         System.out.println("[exit] Exit");
         System.out.println("[help] Shows this message");
         System.out.println("");
     }
 
+    private static final DateTimeFormatter LONG_FORMAT_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm").withZone(ZoneId.systemDefault());
+
+    private static final int LIST_PAGE_SIZE = 1000;
+
+    private static String formatLong(final DirEntry entry, final String name) {
+        return String.format("%-4s %14d  %s  %s", entry.kind() == DirEntry.Kind.DIRECTORY ? "dir" : "file", entry.size(), LONG_FORMAT_TIME.format(Instant.ofEpochMilli(entry.lastModifiedMillis())), name);
+    }
+
+    private static void printListing(final ListOption opt, final boolean longFormat, final boolean unsorted) {
+        try (final DirectoryCursor cursor = unsorted ? workingDir.listCursor(opt, null, 0, LIST_PAGE_SIZE) : workingDir.listCursor(opt)) {
+            boolean printedFolders = false, printedFiles = false;
+            for (List<DirEntry> page = cursor.nextPage(); !page.isEmpty(); page = cursor.nextPage()) {
+                for (final DirEntry entry : page) {
+                    if (entry.kind() == DirEntry.Kind.OTHER)
+                        continue;
+                    if (unsorted) { // directory order, so folders and files arrive interleaved
+                        if (!printedFiles)
+                            System.out.println("Entries:");
+                        printedFiles = printedFolders = true;
+                    } else if (entry.kind() == DirEntry.Kind.DIRECTORY && !printedFolders) {
+                        System.out.println("Folders:");
+                        printedFolders = true;
+                    } else if (entry.kind() == DirEntry.Kind.FILE && !printedFiles) {
+                        System.out.println(printedFolders ? "" : "No Folders here");
+                        System.out.println("Files:");
+                        printedFiles = printedFolders = true;
+                    }
+                    final String name = unsorted && entry.kind() == DirEntry.Kind.DIRECTORY ? entry.name() + '/' : entry.name();
+                    System.out.println(longFormat ? formatLong(entry, name) : name);
+                }
+                System.out.flush();
+            }
+            if (!printedFolders)
+                System.out.println("No Folders here");
+            if (!printedFiles) {
+                if (printedFolders)
+                    System.out.println();
+                System.out.println("No Files here");
+            }
+        } catch (final UncheckedIOException e) { // the folder went away or became unreadable while its pages were streaming
+            System.out.println(e.getCause() instanceof NoSuchFileException ? ErrorCode.FILE_NOT_FOUND : ErrorCode.IO_ERROR);
+        }
+    }
+
+    private static void printDuplicates(final ListOption opt) {
+        final List<DuplicateGroup> groups = workingDir.dupes(opt);
+        if (groups == null) {
+            System.out.println(ErrorCode.ENTITY_IS_LOCKED);
+            return;
+        }
+        long reclaimable = 0;
+        for (final DuplicateGroup group : groups) {
+            System.out.println(String.format("%8s x%d", DiskUsage.humanReadable(group.size()), group.files().size()));
+            for (final String file : group.files())
+                System.out.println("          " + file);
+            reclaimable += group.reclaimableBytes();
+        }
+        System.out.println(String.format("%8s  reclaimable in %d groups", DiskUsage.humanReadable(reclaimable), groups.size()));
+    }
+
+    private static void printDiskUsage(final ListOption opt) {
+        final DiskUsage usage = workingDir.du(opt);
+        if (usage == null) {
+            System.out.println(ErrorCode.IO_ERROR);
+            return;
+        }
+        for (final DirEntry child : usage.children())
+            System.out.println(String.format("%8s  %s", DiskUsage.humanReadable(child.size()), child.kind() == DirEntry.Kind.DIRECTORY ? child.name() + '/' : child.name()));
+        System.out.println(String.format("%8s  total in %d files", DiskUsage.humanReadable(usage.totalBytes()), usage.fileCount()));
+    }
+
+    private static void recursiveFind(final String[] args) { // find -r [-h] [-d maxDepth] [-t f|d] [-n maxResults] pattern
+        ListOption opt = ListOption.NONE;
+        DirEntry.Kind kind = null;
+        int maxDepth = 0, maxResults = 0;
+        String pattern = null;
+        try {
+            for (int i = 0; i < args.length; i++)
+                switch (args[i]) {
+                    case "-r" -> {
+                    }
+                    case "-h" -> opt = ListOption.SHOW_HIDDEN;
+                    case "-d" -> maxDepth = Integer.parseInt(args[++i]);
+                    case "-n" -> maxResults = Integer.parseInt(args[++i]);
+                    case "-t" -> {
+                        final String type = args[++i];
+                        if (!type.equals("f") && !type.equals("d")) {
+                            System.out.println("Invalid argument");
+                            return;
+                        }
+                        kind = type.equals("f") ? DirEntry.Kind.FILE : DirEntry.Kind.DIRECTORY;
+                    }
+                    default -> {
+                        if (pattern != null) {
+                            System.out.println("Too many arguments");
+                            return;
+                        }
+                        pattern = args[i];
+                    }
+                }
+        } catch (final ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            System.out.println("Invalid argument");
+            return;
+        }
+        if (pattern == null) {
+            System.out.println("Missing Arguments");
+            return;
+        }
+        try {
+            if (workingDir.find(pattern, opt, kind, maxDepth, maxResults, match -> System.out.println("Found " + match)) == 0)
+                System.out.println("Not Found");
+        } catch (final PatternSyntaxException e) {
+            System.out.println("Invalid argument");
+        }
+    }
+
+    private static void grep(final String[] args) { // grep [-h] [-n maxResults] pattern
+        ListOption opt = ListOption.NONE;
+        int maxResults = 0;
+        String pattern = null;
+        try {
+            for (int i = 0; i < args.length; i++)
+                switch (args[i]) {
+                    case "-h" -> opt = ListOption.SHOW_HIDDEN;
+                    case "-n" -> maxResults = Integer.parseInt(args[++i]);
+                    default -> {
+                        if (pattern != null) {
+                            System.out.println("Too many arguments");
+                            return;
+                        }
+                        pattern = args[i];
+                    }
+                }
+        } catch (final ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            System.out.println("Invalid argument");
+            return;
+        }
+        if (pattern == null) {
+            System.out.println("Missing Arguments");
+            return;
+        }
+        try {
+            final int hits = workingDir.grep(pattern, opt, maxResults, System.out::println);
+            if (hits < 0)
+                System.out.println(ErrorCode.ENTITY_IS_LOCKED);
+            else if (hits == 0)
+                System.out.println("Not Found");
+        } catch (final PatternSyntaxException e) {
+            System.out.println("Invalid argument");
+        }
+    }
+
     final static FolderImpl workingDir = core.FolderImpl.getInstance();
 
     public static void main(final String[] args) {
         final Scanner sc = new Scanner(System.in);
         showHelp();
+        if (workingDir.getUnfinishedJobCount() > 0)
+            System.out.println(workingDir.getUnfinishedJobCount() + " job(s) did not finish last time, type resume to continue them");
         outer: while (true) {
             System.out.print("Prompt: ");
             final String prompt = sc.nextLine().trim();
@@ -57,7 +231,9 @@ final class repl {
                 }
 
                 case "find" -> {
-                    if (argumentArr.length == 0 || (argumentArr.length == 1 && argumentArr[0].equals("-h")))
+                    if (Arrays.asList(argumentArr).contains("-r"))
+                        recursiveFind(argumentArr);
+                    else if (argumentArr.length == 0 || (argumentArr.length == 1 && argumentArr[0].equals("-h")))
                         System.out.println("Missing Arguments");
                     else if (argumentArr.length == 2 && argumentArr[0].equals("-h") && argumentArr[1].equals("-h"))
                         System.out.println("Invalid argument");
@@ -83,6 +259,8 @@ final class repl {
                     }
                 }
 
+                case "grep" -> grep(argumentArr);
+
                 case "prop" -> {
                     if (argumentArr.length == 0)
                         System.out.println("Missing Arguments");
@@ -100,31 +278,52 @@ final class repl {
                 }
 
                 case "ls" -> {
-                    CopyOnWriteArrayList<String> files = null, folders = null;
-                    if (argumentArr.length > 1)
+                    boolean showHidden = false, longFormat = false, unsorted = false, validArgs = true;
+                    for (final String arg : argumentArr)
+                        if (arg.matches("-[hlu]+"))
+                            for (final char flag : arg.substring(1).toCharArray())
+                                switch (flag) {
+                                    case 'h' -> showHidden = true;
+                                    case 'l' -> longFormat = true;
+                                    default -> unsorted = true;
+                                }
+                        else
+                            validArgs = false;
+                    if (argumentArr.length > 3)
                         System.out.println("Too many arguments");
-                    else if (argumentArr.length != 0 && !argumentArr[0].equals("-h"))
+                    else if (!validArgs)
                         System.out.println("Invalid argument");
-                    else if (argumentArr.length != 0 && argumentArr[0].equals("-h")) {
-                        folders = workingDir.listFolders(ListOption.SHOW_HIDDEN);
-                        files = workingDir.listFiles(ListOption.SHOW_HIDDEN);
-                    } else {
-                        folders = workingDir.listFolders();
-                        files = workingDir.listFiles();
-                    }
-                    if (folders != null && folders.size() != 0) {
-                        System.out.println("Folders:");
-                        for (final String folderName : folders)
-                            System.out.println(folderName);
-                        System.out.println();
-                    } else
-                        System.out.println("No Folders here");
-                    if (files != null && files.size() != 0) {
-                        System.out.println("Files:");
-                        for (final String fileName : files)
-                            System.out.println(fileName);
-                    } else
-                        System.out.println("No Files here");
+                    else
+                        printListing(showHidden ? ListOption.SHOW_HIDDEN : ListOption.NONE, longFormat, unsorted);
+                }
+
+                case "du" -> {
+                    if (argumentArr.length == 0)
+                        printDiskUsage(ListOption.NONE);
+                    else if (argumentArr.length == 1 && argumentArr[0].equals("-h"))
+                        printDiskUsage(ListOption.SHOW_HIDDEN);
+                    else if (argumentArr.length == 1)
+                        System.out.println("Invalid argument");
+                    else
+                        System.out.println("Too many arguments");
+                }
+
+                case "dupes" -> {
+                    if (argumentArr.length == 0)
+                        printDuplicates(ListOption.NONE);
+                    else if (argumentArr.length == 1 && argumentArr[0].equals("-h"))
+                        printDuplicates(ListOption.SHOW_HIDDEN);
+                    else if (argumentArr.length == 1)
+                        System.out.println("Invalid argument");
+                    else
+                        System.out.println("Too many arguments");
+                }
+
+                case "verify" -> {
+                    if (argumentArr.length != 0)
+                        System.out.println("Too many arguments");
+                    else
+                        System.out.println(workingDir.verify(System.out::println));
                 }
 
                 case "touch" -> {
@@ -142,13 +341,70 @@ final class repl {
                 }
 
                 case "cp" -> {
+                    final Set<CopyOption> options = EnumSet.noneOf(CopyOption.class);
+                    int flags = 0;
+                    for (; flags < argumentArr.length && (argumentArr[flags].equals("-v") || argumentArr[flags].equals("-m")); flags++)
+                        options.add(argumentArr[flags].equals("-v") ? CopyOption.VERIFY : CopyOption.MANIFEST);
+                    if (argumentArr.length == flags)
+                        System.out.println("Missing Arguments");
+                    else if (argumentArr.length == flags + 1)
+                        System.out.println("Insufficient Arguments");
+                    else {
+                        final String command = "cp " + String.join(" ", argumentArr);
+                        System.out.println("Copying in background, see iostat");
+                        workingDir.copyAsync(argumentArr[argumentArr.length - 1], options, Arrays.copyOfRange(argumentArr, flags, argumentArr.length - 1))
+                                .thenAccept(result -> System.out.println("\n" + command + ": " + result)); // printed when the whole batch settles
+                    }
+                }
+
+                case "sync" -> {
                     if (argumentArr.length == 0)
                         System.out.println("Missing Arguments");
                     else if (argumentArr.length == 1)
                         System.out.println("Insufficient Arguments");
                     else {
-                        System.out.println(workingDir.copy(argumentArr[argumentArr.length - 1],
-                                Arrays.copyOfRange(argumentArr, 0, argumentArr.length - 1)));
+                        final String command = "sync " + String.join(" ", argumentArr);
+                        System.out.println("Syncing in background, see iostat");
+                        workingDir.syncAsync(argumentArr[argumentArr.length - 1], Arrays.copyOfRange(argumentArr, 0, argumentArr.length - 1))
+                                .thenAccept(result -> System.out.println("\n" + command + ": " + result));
+                    }
+                }
+
+                case "pack" -> {
+                    if (argumentArr.length < 2)
+                        System.out.println("Missing Arguments");
+                    else if (argumentArr.length > 2)
+                        System.out.println("Too many arguments");
+                    else {
+                        final String command = "pack " + String.join(" ", argumentArr);
+                        System.out.println("Packing in background, see iostat");
+                        workingDir.pack(argumentArr[0], argumentArr[1]).thenAccept(result -> System.out.println("\n" + command + ": " + result));
+                    }
+                }
+
+                case "unpack" -> {
+                    if (argumentArr.length == 0)
+                        System.out.println("Missing Arguments");
+                    else if (argumentArr.length > 2)
+                        System.out.println("Too many arguments");
+                    else {
+                        final String command = "unpack " + String.join(" ", argumentArr);
+                        System.out.println("Unpacking in background, see iostat");
+                        workingDir.unpack(argumentArr[0], argumentArr.length == 2 ? argumentArr[1] : ".").thenAccept(result -> System.out.println("\n" + command + ": " + result));
+                    }
+                }
+
+                case "resume" -> {
+                    if (argumentArr.length != 0)
+                        System.out.println("Too many arguments");
+                    else {
+                        final CompletableFuture<BatchResult> resumed = workingDir.resume();
+                        if (resumed.isDone() && resumed.join().results().isEmpty())
+                            System.out.println("Nothing to resume");
+                        else {
+                            System.out.println("Resuming in background, see iostat");
+                            resumed.thenAccept(result -> System.out.println("\nresume: " + result));
+                        }
                     }
                 }
 
@@ -167,12 +423,51 @@ final class repl {
                         System.out.println("Missing Arguments");
                     else if (argumentArr.length == 1)
                         System.out.println("Insufficient Arguments");
+                    else {
+                        final String command = "mv " + String.join(" ", argumentArr);
+                        System.out.println("Moving in background, see iostat");
+                        workingDir.moveAsync(argumentArr[argumentArr.length - 1], Arrays.copyOfRange(argumentArr, 0, argumentArr.length - 1))
+                                .thenAccept(result -> System.out.println("\n" + command + ": " + result)); // printed when the whole batch settles
+                    }
+                }
+
+                case "iostat" -> {
+                    if (argumentArr.length == 0)
+                        workingDir.getIoStat();
+                    else if (argumentArr.length == 1 && argumentArr[0].equals("-w"))
+                        try {
+                            while (workingDir.getIoStat()) {
+                                Thread.sleep(1000);
+                                System.out.println();
+                            }
+                        } catch (final InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
                     else
-                        System.out.println(workingDir.move(argumentArr[argumentArr.length - 1],
-                                Arrays.copyOfRange(argumentArr, 0, argumentArr.length - 1)));
+                        System.out.println("Invalid argument");
                 }
 
-                case "iostat" -> workingDir.getIoStat();
+                case "cancel" -> {
+                    if (argumentArr.length == 0)
+                        System.out.println("Missing Arguments");
+                    else if (argumentArr.length > 1)
+                        System.out.println("Too many Arguments");
+                    else
+                        try {
+                            System.out.println(workingDir.cancel(Integer.parseInt(argumentArr[0])));
+                        } catch (final NumberFormatException e) {
+                            System.out.println("Invalid argument");
+                        }
+                }
+
+                case "index" -> {
+                    if (argumentArr.length == 0)
+                        System.out.println(workingDir.buildIndex() ? "Indexing in background, see index status" : "Indexing already in progress");
+                    else if (argumentArr.length == 1 && argumentArr[0].equals("status"))
+                        System.out.println(workingDir.getIndexStatus());
+                    else
+                        System.out.println("Invalid argument");
+                }
 
                 case "rename" -> {
                     if (argumentArr.length == 0)
@@ -188,7 +483,14 @@ final class repl {
                 case "rm" -> {
                     if (argumentArr.length == 0)
                         System.out.println("Missing Arguments");
-                    else
+                    else if (argumentArr[0].equals("-r") && argumentArr.length == 1)
+                        System.out.println("Missing Arguments");
+                    else if (argumentArr[0].equals("-r")) {
+                        final String command = "rm " + String.join(" ", argumentArr);
+                        System.out.println("Deleting in background, see iostat");
+                        workingDir.deleteRecursiveAsync(Arrays.copyOfRange(argumentArr, 1, argumentArr.length))
+                                .thenAccept(result -> System.out.println("\n" + command + ": " + result));
+                    } else
                         System.out.println(workingDir.delete(argumentArr));
                 }
 
@@ -0,0 +1,50 @@
+package core; // the mode survives every copy path, run by test.sh
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+final class CopyModeTest {
+    public static void main(final String[] args) throws IOException {
+        final Path dir = Files.createTempDirectory("copy-mode");
+        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            final Path src = dir.resolve("tool");
+            final byte[] content = new byte[(int) (2 * ChunkedFileCopier.SLICE + 12345)]; // bigger than a slice, so not a copySmall
+            new Random(7).nextBytes(content);
+            Files.write(src, content);
+            Files.setPosixFilePermissions(src, PosixFilePermissions.fromString("rwxr-x---"));
+            check("small", src, dir.resolve("small"), dest -> ChunkedFileCopier.copySmall(src, dest, new Job(0, "test")));
+            check("sliced", src, dir.resolve("sliced"), dest -> ChunkedFileCopier.copySliced(src, dest, new Job(0, "test"), null));
+            ChunkedFileCopier.setChunkSize(ChunkedFileCopier.SLICE); // several chunks, whatever the threshold
+            check("chunked", src, dir.resolve("chunked"), dest -> ChunkedFileCopier.copy(src, dest, executorService, new Job(0, "test"), null));
+            check("checksummed", src, dir.resolve("checksummed"), dest -> ChunkedFileCopier.copySliced(src, dest, new Job(0, "test"), new FileChecksum(content.length)));
+            System.out.println("CopyModeTest: OK");
+        } finally {
+            executorService.shutdown();
+            try (final var files = Files.list(dir)) {
+                for (final Path file : (Iterable<Path>) files::iterator)
+                    Files.delete(file);
+            }
+            Files.delete(dir);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Copy {
+        void to(final Path dest) throws IOException;
+    }
+
+    private static void check(final String path, final Path src, final Path dest, final Copy copy) throws IOException {
+        copy.to(dest);
+        if (!Files.getPosixFilePermissions(dest).equals(Files.getPosixFilePermissions(src)))
+            throw new AssertionError(path + " copy has mode " + PosixFilePermissions.toString(Files.getPosixFilePermissions(dest)));
+        if (!Arrays.equals(Files.readAllBytes(dest), Files.readAllBytes(src)))
+            throw new AssertionError(path + " copy differs from its source");
+    }
+}
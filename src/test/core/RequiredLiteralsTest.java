@@ -0,0 +1,39 @@
+package core; // every literal the index and grep prefilter on must be in every name the regex matches, run by test.sh
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+final class RequiredLiteralsTest {
+    public static void main(final String[] args) {
+        // pattern, a name it matches
+        check("\\u00e9tude.*", "\u00e9tude.txt");
+        check("\\x41bcdef", "Abcdef");
+        check("\\0101xyz", "Axyz");
+        check("\\cAxyz", "\u0001xyz");
+        check("\\p{L}abc", "zabc");
+        check("\\Qa.b\\E", "a.b");
+        check("(ab)\\1cd", "ababcd");
+        check("(?<w>ab)\\k<w>cd", "ababcd");
+        check("(?i)report", "REPORT.pdf");
+        check("\\dabc\\.txt", "7abc.txt");
+        expect("\\dabc\\.txt", List.of("abc.txt"));
+        expect("foo\\.bar.*", List.of("foo.bar"));
+        expect("\\u00e9tude", List.of());
+        System.out.println("RequiredLiteralsTest: OK");
+    }
+
+    private static void check(final String regex, final String name) {
+        final Pattern pattern = Pattern.compile(regex);
+        if (!pattern.matcher(name).find())
+            throw new AssertionError(regex + " does not match " + name + ", bad test case");
+        for (final String literal : FilenameIndex.requiredLiterals(pattern))
+            if (!name.contains(literal))
+                throw new AssertionError(regex + " requires " + literal + " but matches " + name);
+    }
+
+    private static void expect(final String regex, final List<String> literals) {
+        final List<String> found = FilenameIndex.requiredLiterals(Pattern.compile(regex));
+        if (!found.equals(literals))
+            throw new AssertionError(regex + " gave " + found + ", expected " + literals);
+    }
+}
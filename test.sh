@@ -0,0 +1,10 @@
+#!/bin/bash
+# regression checks, each a main that throws on failure: ./test.sh
+cd src &&
+rm -rf ./test-classes &&
+javac -d ./test-classes ./core/*.java ./test/core/*.java -Xlint:all -Werror || exit 1
+for check in ./test/core/*.java; do
+    java -cp ./test-classes core.$(basename "$check" .java) || failed=1
+done
+rm -rf ./test-classes
+exit ${failed:-0}